@@ -0,0 +1,93 @@
+package hudson.plugins.libvirt;
+
+import hudson.plugins.libvirt.lib.sim.SimConnectImpl;
+import hudson.plugins.libvirt.lib.sim.SimHypervisor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks the domain lookups and the capacity accounting of {@link Hypervisor} against a simulated hypervisor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HypervisorBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int domains;
+
+    @Param({"0", "200"})
+    public long latencyMicros;
+
+    private Hypervisor hypervisor;
+    private String lookupName;
+
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @Setup
+    public void setUp() {
+        hypervisor = new Hypervisor("QEMU", "bench", 22, "system", "bench", 0, false, null, "keep", 0, 0, 0, 0, null);
+        SimHypervisor.reset();
+        hypervisor.setConnection(new SimConnectImpl("sim://bench/system?domains=" + domains
+                + "&latencyMicros=" + latencyMicros));
+        lookupName = "vm-" + (domains / 2);
+    }
+
+    @Benchmark
+    public Map<?, ?> getDomains() throws Exception {
+        return hypervisor.getDomains();
+    }
+
+    @Benchmark
+    public Object getDomainByName() {
+        return hypervisor.getDomainByName(lookupName);
+    }
+
+    /**
+     * Per-thread slave and VM names, so that the threads compete for the monitor, not for the same slot.
+     */
+    @State(Scope.Thread)
+    public static class Slot {
+        String slaveName;
+        String vmName;
+
+        @Setup
+        public void setUp(HypervisorBenchmark benchmark) {
+            int id = benchmark.threadIds.getAndIncrement();
+            slaveName = "slave-" + id;
+            vmName = "vm-" + id;
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean markOnlineAndOfflineUnderContention(Slot slot) throws Exception {
+        boolean marked = hypervisor.markVMOnline(slot.slaveName, slot.vmName);
+        boolean full = hypervisor.isFull();
+        hypervisor.markVMOffline(slot.slaveName, slot.vmName);
+        return marked ^ full;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean isFullUnderContention() {
+        return hypervisor.isFull();
+    }
+}
@@ -0,0 +1,115 @@
+package hudson.plugins.libvirt;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.labels.LabelAtom;
+import hudson.plugins.libvirt.lib.sim.SimConnectImpl;
+import hudson.plugins.libvirt.lib.sim.SimHypervisor;
+import hudson.slaves.JNLPLauncher;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+import hudson.slaves.SlaveComputer;
+import jenkins.model.Jenkins;
+import org.jvnet.hudson.test.HudsonTestCase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link LibvirtRetentionStrategy#hasUniqueJob} with a large queue of buildable items and many
+ * offline libvirt slaves, in a Jenkins started by the test harness.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RetentionStrategyBenchmark {
+
+    @Param({"50", "500"})
+    public int queuedItems;
+
+    @Param({"10", "100"})
+    public int slaves;
+
+    private Harness harness;
+    private LibvirtRetentionStrategy strategy;
+    private SlaveComputer computer;
+
+    /**
+     * Gives access to the setup and teardown of the test harness outside of JUnit.
+     */
+    static class Harness extends HudsonTestCase {
+        Harness() {
+            setName("benchmark");
+        }
+
+        void start() throws Exception {
+            setUp();
+        }
+
+        void stop() throws Exception {
+            tearDown();
+        }
+
+        Jenkins getJenkins() {
+            return jenkins;
+        }
+
+        FreeStyleProject newProject(String name) throws Exception {
+            return createFreeStyleProject(name);
+        }
+    }
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        harness = new Harness();
+        harness.start();
+
+        Hypervisor hypervisor = new Hypervisor("QEMU", "bench", 22, "system", "bench", 0, false, null, "keep", 0, 0, 0, 0, null);
+        SimHypervisor.reset();
+        hypervisor.setConnection(new SimConnectImpl("sim://bench/system?domains=" + slaves));
+        harness.getJenkins().clouds.add(hypervisor);
+
+        for (int i = 0; i < slaves; i++) {
+            harness.getJenkins().addNode(new VirtualMachineSlave("slave-" + i, "", "/tmp", "1", Node.Mode.NORMAL, "vm",
+                    null, new JNLPLauncher(), (RetentionStrategy) RetentionStrategy.NOOP,
+                    Collections.<NodeProperty<?>>emptyList(), hypervisor.getHypervisorDescription(), "vm-" + i, "", 0,
+                    "shutdown", false, 0, "", 0, 0, 0, 0, 0, 0));
+        }
+        for (int i = 0; i < queuedItems; i++) {
+            FreeStyleProject project = harness.newProject("job-" + i);
+            project.setAssignedLabel(new LabelAtom("vm"));
+            project.scheduleBuild2(0);
+        }
+        Queue.getInstance().maintain();
+
+        strategy = new LibvirtRetentionStrategy(1);
+        computer = (SlaveComputer) harness.getJenkins().getNode("slave-0").toComputer();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        harness.stop();
+    }
+
+    @Benchmark
+    public boolean hasUniqueJob() {
+        return strategy.hasUniqueJob(computer);
+    }
+}
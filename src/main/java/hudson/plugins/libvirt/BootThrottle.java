@@ -0,0 +1,92 @@
+package hudson.plugins.libvirt;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Admits domain boots on one {@link Hypervisor} in arrival order.
+ * <p>
+ * Booting many guests at once saturates the disks of the host, so every boot gets slower and launches
+ * time out. The throttle lets at most a fixed number of boots run at the same time and can space the
+ * admissions out by a minimum interval, so a queue spike ramps up instead of starting everything at once.
+ */
+public class BootThrottle {
+
+    private final int maxConcurrent;
+    private final long intervalMs;
+    private final Semaphore permits;
+    private long nextAdmission;
+
+    /**
+     * @param maxConcurrent the number of boots allowed at the same time, 0 or less for no limit
+     * @param intervalMs    the minimum time between two admissions, 0 or less to admit right away
+     */
+    public BootThrottle(int maxConcurrent, long intervalMs) {
+        this.maxConcurrent = maxConcurrent;
+        this.intervalMs = intervalMs;
+        this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent, true) : null;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * @return the number of boots currently waiting for admission
+     */
+    public int getQueueLength() {
+        return permits == null ? 0 : permits.getQueueLength();
+    }
+
+    /**
+     * @return the number of boots currently admitted, or 0 if the concurrency is not limited
+     */
+    public int getRunning() {
+        return permits == null ? 0 : maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * @return whether a boot asking now would have to wait for a running boot to finish
+     */
+    public boolean isSaturated() {
+        return permits != null && (permits.availablePermits() == 0 || permits.hasQueuedThreads());
+    }
+
+    /**
+     * Waits until a boot may start. Every successful call must be paired with {@link #release()}.
+     *
+     * @throws InterruptedException if interrupted while waiting, no permit is held then
+     */
+    public void acquire() throws InterruptedException {
+        if (permits != null) {
+            permits.acquire();
+        }
+        if (intervalMs <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long admission = Math.max(now, nextAdmission);
+            nextAdmission = admission + intervalMs;
+            wait = admission - now;
+        }
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                release();
+                throw e;
+            }
+        }
+    }
+
+    public void release() {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package hudson.plugins.libvirt;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.VirtException;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Rebuilds the capacity accounting of every {@link Hypervisor} from the live domain state.
+ * <p>
+ * The accounting is transient, so after a restart of Jenkins each hypervisor believes that no VM is
+ * online, while domains started before the restart are still running. Once Jenkins is up, this pass
+ * counts the running domain of every {@link VirtualMachineSlave} against the capacity of its hypervisor.
+ * It never shuts a domain down: slaves are still reconnecting at that point, so a running domain without
+ * an online slave is left to the {@link OrphanDomainSweeper} and its grace period.
+ */
+public final class CapacityReconciler {
+
+    private static final Logger LOGGER = Logger.getLogger(CapacityReconciler.class.getName());
+
+    private CapacityReconciler() {
+    }
+
+    @Initializer(after = InitMilestone.COMPLETED)
+    public static void reconcileOnStartup() {
+        Computer.threadPoolForRemoting.submit(new Runnable() {
+            public void run() {
+                reconcile();
+            }
+        });
+    }
+
+    /**
+     * Reads the running domains of all hypervisors in parallel, one task per hypervisor, and counts those of
+     * libvirt slaves against the capacity.
+     */
+    public static void reconcile() {
+        Map<Hypervisor, List<VirtualMachineSlave>> slavesByHypervisor = new HashMap<Hypervisor, List<VirtualMachineSlave>>();
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            if (!(node instanceof VirtualMachineSlave)) {
+                continue;
+            }
+            VirtualMachineSlave slave = (VirtualMachineSlave) node;
+            if (!(slave.getLauncher() instanceof VirtualMachineLauncher)) {
+                LOGGER.log(Level.WARNING, "Skipping slave {0}, it is not launched through libvirt.", slave.getNodeName());
+                continue;
+            }
+            try {
+                Hypervisor hypervisor = ((VirtualMachineLauncher) slave.getLauncher()).getHypervisor();
+                List<VirtualMachineSlave> slaves = slavesByHypervisor.get(hypervisor);
+                if (slaves == null) {
+                    slaves = new ArrayList<VirtualMachineSlave>();
+                    slavesByHypervisor.put(hypervisor, slaves);
+                }
+                slaves.add(slave);
+            } catch (RuntimeException e) {
+                LogRecord rec = new LogRecord(Level.WARNING, "Skipping slave {0}, its hypervisor could not be resolved.");
+                rec.setParameters(new Object[]{slave.getNodeName()});
+                rec.setThrown(e);
+                LOGGER.log(rec);
+            }
+        }
+
+        Map<Hypervisor, Future<Integer>> adoptions = new LinkedHashMap<Hypervisor, Future<Integer>>();
+        for (final Map.Entry<Hypervisor, List<VirtualMachineSlave>> entry : slavesByHypervisor.entrySet()) {
+            adoptions.put(entry.getKey(), Computer.threadPoolForRemoting.submit(new Callable<Integer>() {
+                public Integer call() throws VirtException {
+                    return adopt(entry.getKey(), entry.getValue());
+                }
+            }));
+        }
+
+        int adopted = 0;
+        for (Map.Entry<Hypervisor, Future<Integer>> entry : adoptions.entrySet()) {
+            try {
+                adopted += entry.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LogRecord rec = new LogRecord(Level.WARNING, "Failed to read the running domains of {0}.");
+                rec.setParameters(new Object[]{entry.getKey().getHypervisorDescription()});
+                rec.setThrown(e.getCause());
+                LOGGER.log(rec);
+            }
+        }
+        LOGGER.log(Level.INFO, "Capacity reconciled: {0} running domains accounted for.", adopted);
+    }
+
+    /**
+     * Counts the running domains of the given slaves against the capacity of their hypervisor.
+     *
+     * @return the number of domains accounted for
+     */
+    private static int adopt(Hypervisor hypervisor, List<VirtualMachineSlave> slaves) throws VirtException {
+        Map<String, IDomain> running = hypervisor.getRunningDomains();
+        int adopted = 0;
+        for (VirtualMachineSlave slave : slaves) {
+            if (running.containsKey(slave.getVirtualMachineName())
+                    && hypervisor.markVMOnline(slave.getNodeName(), slave.getVirtualMachineName())) {
+                adopted++;
+            }
+        }
+        return adopted;
+    }
+}
@@ -0,0 +1,132 @@
+package hudson.plugins.libvirt;
+
+/**
+ * Tracks whether a {@link Hypervisor} can be reached, so callers fail right away while its host is down
+ * instead of each waiting for the connection attempt to time out.
+ * <p>
+ * The breaker starts closed and opens after {@link #FAILURE_THRESHOLD} consecutive failed connection
+ * attempts. While open, every request is rejected. Once {@link #OPEN_SECONDS} have passed it lets a single
+ * probe through (half-open): success closes it again, failure opens it for twice as long, up to
+ * {@link #MAX_OPEN_SECONDS}.
+ */
+public class CircuitBreaker {
+
+    public static final int FAILURE_THRESHOLD = Integer.getInteger(CircuitBreaker.class.getName() + ".failureThreshold", 3);
+
+    public static final int OPEN_SECONDS = Integer.getInteger(CircuitBreaker.class.getName() + ".openSeconds", 30);
+
+    public static final int MAX_OPEN_SECONDS = Integer.getInteger(CircuitBreaker.class.getName() + ".maxOpenSeconds", 600);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openMs = OPEN_SECONDS * 1000L;
+    private long openUntil;
+    private long openedAt;
+    private boolean probing;
+
+    /**
+     * Asks whether a request may go to the hypervisor. In the half-open state only the first caller gets
+     * through, as the probe; it must report back with {@link #recordSuccess()} or {@link #recordFailure()}.
+     *
+     * @return whether to go ahead
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now() < openUntil) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    /**
+     * @return whether a request asking now would get through, without taking the probe
+     */
+    public synchronized boolean isAvailable() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return now() >= openUntil;
+            default:
+                return !probing;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+        openMs = OPEN_SECONDS * 1000L;
+    }
+
+    /**
+     * Reports a request that was let through but never reached the hypervisor, e.g. because too many calls to
+     * it were running locally. It counts neither way; in the half-open state the next caller gets to probe.
+     */
+    public synchronized void recordInconclusive() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    public synchronized void recordFailure() {
+        long now = now();
+        if (state == State.HALF_OPEN) {
+            openMs = Math.min(openMs * 2, MAX_OPEN_SECONDS * 1000L);
+            open(now);
+            return;
+        }
+        failures++;
+        if (state == State.CLOSED && failures >= FAILURE_THRESHOLD) {
+            openedAt = now;
+            open(now);
+        }
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        probing = false;
+        openUntil = now + openMs;
+    }
+
+    /**
+     * @return the current time, overridden by tests
+     */
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return when the breaker opened, 0 if it is closed
+     */
+    public synchronized long getOpenedAt() {
+        return state == State.CLOSED ? 0 : openedAt;
+    }
+
+    /**
+     * @return the milliseconds until the next probe, 0 if requests go through or a probe is running
+     */
+    public synchronized long getRetryInMs() {
+        return state == State.OPEN ? Math.max(0, openUntil - now()) : 0;
+    }
+}
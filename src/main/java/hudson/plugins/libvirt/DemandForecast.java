@@ -0,0 +1,334 @@
+package hudson.plugins.libvirt;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.Saveable;
+import hudson.model.queue.QueueListener;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Learns how many builds arrive in the queue per label at each time of the week.
+ * <p>
+ * The week is split into {@link #SLOTS} slots of {@link #SLOT_MINUTES} minutes. Arrivals are counted for the
+ * current slot; when the slot ends, its count is folded into a moving average kept per label and slot, so
+ * the forecast for Monday 9:00 is what recent Mondays at 9:00 looked like. Before folding, the count is
+ * compared with what had been forecast, which gives the accuracy shown on the management page.
+ * Slots that ended without being rolled over, e.g. while Jenkins was down, are folded in as slots without
+ * arrivals. The averages are loaded on startup and saved to <code>libvirt-demand-forecast.xml</code> whenever a
+ * slot ends.
+ *
+ * @see PreBootWork
+ */
+public class DemandForecast implements Saveable {
+
+    private static final Logger LOGGER = Logger.getLogger(DemandForecast.class.getName());
+
+    public static final int SLOT_MINUTES = 15;
+
+    public static final int SLOTS = 7 * 24 * 60 / SLOT_MINUTES;
+
+    /**
+     * The weight of the latest week in the moving average.
+     */
+    private static final double ALPHA = 0.3;
+
+    private static final long WEEK_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private static DemandForecast instance;
+
+    /**
+     * The demand of one label.
+     */
+    public static final class LabelDemand {
+        private final String label;
+        private transient double[] average = new double[SLOTS];
+        /**
+         * The non-zero averages as <code>slot:value</code> pairs, which is all that is saved.
+         */
+        private String slots;
+        private final long since;
+        private double absoluteError;
+        private double arrivals;
+        private int scoredSlots;
+
+        LabelDemand(String label, long since) {
+            this.label = label;
+            this.since = since;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return when arrivals of this label were first seen
+         */
+        public long getSince() {
+            return since;
+        }
+
+        /**
+         * @param slot the slot of the week
+         * @return the number of arrivals expected in the slot
+         */
+        public double getExpected(int slot) {
+            return average[slot];
+        }
+
+        /**
+         * @return the number of arrivals expected in the coming hour
+         */
+        public double getExpectedNextHour() {
+            int slot = slotOf(System.currentTimeMillis());
+            double sum = 0;
+            for (int i = 1; i <= 60 / SLOT_MINUTES; i++) {
+                sum += average[(slot + i) % SLOTS];
+            }
+            return sum;
+        }
+
+        /**
+         * @return the number of slots the forecast was checked against
+         */
+        public int getScoredSlots() {
+            return scoredSlots;
+        }
+
+        /**
+         * @return the forecast error as a percentage of the actual arrivals, -1 while there is nothing to compare
+         */
+        public int getErrorPercent() {
+            return arrivals == 0 ? -1 : (int) Math.round(100 * absoluteError / arrivals);
+        }
+
+        private Object readResolve() {
+            average = new double[SLOTS];
+            if (slots != null && slots.length() > 0) {
+                for (String pair : slots.split(",")) {
+                    int colon = pair.indexOf(':');
+                    int slot = Integer.parseInt(pair.substring(0, colon));
+                    if (slot < SLOTS) {
+                        average[slot] = Double.parseDouble(pair.substring(colon + 1));
+                    }
+                }
+            }
+            return this;
+        }
+
+        void pack() {
+            StringBuilder sb = new StringBuilder();
+            for (int slot = 0; slot < SLOTS; slot++) {
+                // below this a slot never rounds up to a VM, drop it to keep the file small
+                if (average[slot] >= 0.001) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(slot).append(':').append(String.format(Locale.ENGLISH, "%.3f", average[slot]));
+                }
+            }
+            slots = sb.toString();
+        }
+
+        void fold(int slot, int count, long now) {
+            // the first week only learns, there is no forecast to check yet
+            if (now - since >= WEEK_MS) {
+                absoluteError += Math.abs(average[slot] - count);
+                arrivals += count;
+                scoredSlots++;
+            }
+            average[slot] = ALPHA * count + (1 - ALPHA) * average[slot];
+        }
+    }
+
+    private final Map<String, LabelDemand> labels = new TreeMap<String, LabelDemand>();
+    /**
+     * When the slot that is being counted started to be counted, 0 if never.
+     */
+    private long rolledAt;
+    private transient int currentSlot = -1;
+    private transient Map<String, Integer> counts = new HashMap<String, Integer>();
+
+    /**
+     * Loads the forecast before the queue can report arrivals, so the queue never waits for the file.
+     */
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static synchronized void init() {
+        if (instance == null) {
+            instance = load();
+        }
+    }
+
+    public static synchronized DemandForecast get() {
+        if (instance == null) {
+            // only before the initializer ran
+            instance = load();
+        }
+        return instance;
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM, new File(Jenkins.getInstance().getRootDir(), "libvirt-demand-forecast.xml"));
+    }
+
+    private static DemandForecast load() {
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                return (DemandForecast) file.read();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load the demand forecast, starting over", e);
+            }
+        }
+        return new DemandForecast();
+    }
+
+    private Object readResolve() {
+        currentSlot = -1;
+        counts = new HashMap<String, Integer>();
+        return this;
+    }
+
+    public synchronized void save() throws IOException {
+        for (LabelDemand demand : labels.values()) {
+            demand.pack();
+        }
+        getConfigFile().write(this);
+    }
+
+    static int slotOf(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int day = calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY;
+        int minute = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+        return (day * 24 * 60 + minute) / SLOT_MINUTES;
+    }
+
+    /**
+     * Counts an arrival in the current slot. Called with the queue lock held, so it neither rolls the slot
+     * over nor saves; {@link PreBootWork} does that once a minute.
+     *
+     * @param label the label expression the build is waiting for
+     */
+    public synchronized void recordArrival(String label) {
+        if (!labels.containsKey(label)) {
+            labels.put(label, new LabelDemand(label, System.currentTimeMillis()));
+        }
+        Integer count = counts.get(label);
+        counts.put(label, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Folds the arrivals of the slot that ended into the averages and saves them.
+     *
+     * @param now the current time
+     */
+    public void roll(long now) {
+        synchronized (this) {
+            int slot = slotOf(now);
+            if (slot == currentSlot) {
+                return;
+            }
+            int from;
+            if (currentSlot >= 0) {
+                for (LabelDemand demand : labels.values()) {
+                    Integer count = counts.get(demand.getLabel());
+                    demand.fold(currentSlot, count == null ? 0 : count, now);
+                }
+                from = currentSlot;
+            } else {
+                // the slot being counted before the restart lost its count, leave it as it was
+                from = rolledAt > 0 ? slotOf(rolledAt) : -1;
+            }
+            if (from >= 0) {
+                foldIdleSlots(from, slot, rolledAt > 0 && now - rolledAt >= WEEK_MS, now);
+            }
+            counts.clear();
+            currentSlot = slot;
+            rolledAt = now;
+        }
+        try {
+            save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the demand forecast", e);
+        }
+    }
+
+    /**
+     * Folds the slots after <code>from</code> and before <code>to</code> in as slots without arrivals.
+     *
+     * @param wholeWeek whether a week or more went by, so that every slot but <code>to</code> was skipped
+     */
+    private void foldIdleSlots(int from, int to, boolean wholeWeek, long now) {
+        if (from == to && !wholeWeek) {
+            return;
+        }
+        for (int i = 1; i < SLOTS; i++) {
+            int slot = (from + i) % SLOTS;
+            if (slot == to) {
+                if (!wholeWeek) {
+                    break;
+                }
+                continue;
+            }
+            for (LabelDemand demand : labels.values()) {
+                demand.fold(slot, 0, now);
+            }
+        }
+    }
+
+    /**
+     * @param label the label expression
+     * @param time  a point in time within the coming week
+     * @return the number of arrivals expected in the slot of that time, 0 for an unknown label
+     */
+    public synchronized double getExpected(String label, long time) {
+        LabelDemand demand = labels.get(label);
+        return demand == null ? 0 : demand.getExpected(slotOf(time));
+    }
+
+    /**
+     * @return the labels seen so far, busiest in the coming hour first
+     */
+    public synchronized List<LabelDemand> getLabels() {
+        List<LabelDemand> list = new ArrayList<LabelDemand>(labels.values());
+        Collections.sort(list, new Comparator<LabelDemand>() {
+            public int compare(LabelDemand a, LabelDemand b) {
+                return Double.compare(b.getExpectedNextHour(), a.getExpectedNextHour());
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Counts the builds entering the queue by the label they need.
+     */
+    @Extension
+    public static class ArrivalRecorder extends QueueListener {
+
+        @Override
+        public void onEnterWaiting(Queue.WaitingItem wi) {
+            Label label = wi.getAssignedLabel();
+            if (label != null) {
+                get().recordArrival(label.getExpression());
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package hudson.plugins.libvirt;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.VirtException;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.LogTaskListener;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a lifecycle operation on many domains of one {@link Hypervisor} at once.
+ * <p>
+ * The domains are looked up with a single inventory call, then the operations fan out over a worker pool
+ * shared by all hypervisors. The number of operations in flight on one host is bounded by
+ * {@link #HOST_CONCURRENCY}, so a bulk start after maintenance does not hit a host with every boot at once.
+ * Starts go through the same {@link BootThrottle} and capacity accounting as launches: a domain of a libvirt
+ * slave takes the capacity slot of that slave, and no domain is started while the host is full.
+ */
+public final class DomainBatch {
+
+    private static final Logger LOGGER = Logger.getLogger(DomainBatch.class.getName());
+
+    /**
+     * The number of worker threads shared by all batches.
+     */
+    public static final int POOL_SIZE = Integer.getInteger(DomainBatch.class.getName() + ".poolSize", 16);
+
+    /**
+     * The number of operations a batch runs in parallel on one hypervisor.
+     */
+    public static final int HOST_CONCURRENCY = Integer.getInteger(DomainBatch.class.getName() + ".hostConcurrency", 4);
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(POOL_SIZE,
+            new NamingThreadFactory(new DaemonThreadFactory(), "Libvirt batch operation"));
+
+    /**
+     * The batch submitted last per hypervisor description, shown on the management page.
+     */
+    private static final ConcurrentMap<String, DomainBatch> LATEST = new ConcurrentHashMap<String, DomainBatch>();
+
+    public enum Action {
+        START, SHUTDOWN, DESTROY, REVERT
+    }
+
+    /**
+     * The outcome of the operation on one domain.
+     */
+    public static final class Result {
+        private final String vmName;
+        private final boolean success;
+        private final String message;
+        private final long durationMs;
+
+        Result(String vmName, boolean success, String message, long durationMs) {
+            this.vmName = vmName;
+            this.success = success;
+            this.message = message;
+            this.durationMs = durationMs;
+        }
+
+        public String getVmName() {
+            return vmName;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+    }
+
+    private final Hypervisor hypervisor;
+    private final Action action;
+    private final String snapshotName;
+    private final AtomicInteger completed = new AtomicInteger();
+    private volatile int size;
+    private volatile Future<List<Result>> future;
+
+    /**
+     * @param hypervisor   the hypervisor the domains live on
+     * @param action       the operation to run
+     * @param snapshotName the snapshot to revert to, only used by {@link Action#REVERT}
+     */
+    public DomainBatch(Hypervisor hypervisor, Action action, String snapshotName) {
+        this.hypervisor = hypervisor;
+        this.action = action;
+        this.snapshotName = snapshotName;
+    }
+
+    /**
+     * Runs the operation on the given domains in the background; the batch then is the latest of its hypervisor.
+     *
+     * @param vmNames the names of the domains
+     * @return this batch
+     */
+    public DomainBatch submit(final Collection<String> vmNames) {
+        size = vmNames.size();
+        future = Computer.threadPoolForRemoting.submit(new Callable<List<Result>>() {
+            public List<Result> call() throws Exception {
+                try {
+                    return run(vmNames);
+                } finally {
+                    hypervisor.getInventory().invalidate();
+                }
+            }
+        });
+        LATEST.put(hypervisor.getHypervisorDescription(), this);
+        return this;
+    }
+
+    /**
+     * @param hypervisor the hypervisor
+     * @return the batch submitted last on the hypervisor, or null
+     */
+    public static DomainBatch getLatest(Hypervisor hypervisor) {
+        return LATEST.get(hypervisor.getHypervisorDescription());
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * @return the number of domains in the batch
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of domains whose operation has finished
+     */
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    public boolean isDone() {
+        return future == null || future.isDone();
+    }
+
+    /**
+     * @return the results of a submitted batch once it is done, null while it runs
+     */
+    public List<Result> getResults() {
+        if (future == null || !future.isDone()) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            List<Result> failed = new ArrayList<Result>();
+            failed.add(new Result("", false, String.valueOf(e.getCause()), 0));
+            return failed;
+        }
+    }
+
+    /**
+     * Runs the operation on the given domains and waits for all of them.
+     *
+     * @param vmNames the names of the domains
+     * @return one result per domain, in the order of the names
+     * @throws VirtException        if the domains can't be listed
+     * @throws InterruptedException if interrupted while waiting for the operations
+     */
+    public List<Result> run(Collection<String> vmNames) throws VirtException, InterruptedException {
+        if (action == Action.REVERT && (snapshotName == null || snapshotName.length() == 0)) {
+            throw new VirtException("No snapshot given to revert to");
+        }
+        Map<String, IDomain> domains = hypervisor.getDomains();
+        final Semaphore permits = hypervisor.getBatchPermits();
+
+        Map<String, Future<Result>> pending = new LinkedHashMap<String, Future<Result>>();
+        for (final String vmName : vmNames) {
+            final IDomain domain = domains.get(vmName);
+            if (domain == null) {
+                pending.put(vmName, null);
+                continue;
+            }
+            // taken by the submitting thread, so pool threads never wait on a busy host
+            permits.acquire();
+            try {
+                pending.put(vmName, POOL.submit(new Callable<Result>() {
+                    public Result call() {
+                        try {
+                            return apply(vmName, domain);
+                        } finally {
+                            completed.incrementAndGet();
+                            permits.release();
+                        }
+                    }
+                }));
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        List<Result> results = new ArrayList<Result>();
+        for (Map.Entry<String, Future<Result>> entry : pending.entrySet()) {
+            if (entry.getValue() == null) {
+                completed.incrementAndGet();
+                results.add(new Result(entry.getKey(), false, "No such domain", 0));
+                continue;
+            }
+            try {
+                results.add(entry.getValue().get());
+            } catch (ExecutionException e) {
+                results.add(new Result(entry.getKey(), false, String.valueOf(e.getCause()), 0));
+            }
+        }
+        return results;
+    }
+
+    private Result apply(String vmName, IDomain domain) {
+        if (action == Action.START) {
+            return start(vmName, domain);
+        }
+        long started = System.currentTimeMillis();
+        Lock lock = hypervisor.getDomainLock(vmName);
+        lock.lock();
+        try {
+            switch (action) {
+                case SHUTDOWN:
+                    new ShutdownController(hypervisor, vmName, "shutdown", 0)
+                            .shutdown(domain, new LogTaskListener(LOGGER, Level.FINE));
+                    break;
+                case DESTROY:
+                    domain.destroy();
+                    break;
+                case REVERT:
+                    domain.revertToSnapshot(domain.snapshotLookupByName(snapshotName));
+                    hypervisor.getSnapshotCache().invalidate(vmName);
+                    break;
+            }
+            return new Result(vmName, true, "OK", System.currentTimeMillis() - started);
+        } catch (VirtException e) {
+            LOGGER.log(Level.WARNING, "{0} of {1} on {2} failed: {3}",
+                    new Object[]{action, vmName, hypervisor.getHypervisorDescription(), e.getMessage()});
+            return new Result(vmName, false, e.getMessage(), System.currentTimeMillis() - started);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a domain like a launch does: it takes the capacity slot of the slave that owns the domain and
+     * waits for the boot throttle of the host.
+     */
+    private Result start(String vmName, IDomain domain) {
+        long started = System.currentTimeMillis();
+        VirtualMachineSlave slave = findSlave(vmName);
+        String slaveName = slave == null ? null : slave.getNodeName();
+        boolean slotTaken = false;
+        try {
+            if (domain.isRunningOrBlocked()) {
+                return new Result(vmName, true, "Already running", System.currentTimeMillis() - started);
+            }
+            if (slaveName != null) {
+                slotTaken = !hypervisor.isVMOnline(slaveName, vmName);
+                if (slotTaken && !hypervisor.markVMOnline(slaveName, vmName)) {
+                    slotTaken = false;
+                    return new Result(vmName, false, "Hypervisor is full", System.currentTimeMillis() - started);
+                }
+            } else if (hypervisor.isFull()) {
+                return new Result(vmName, false, "Hypervisor is full", System.currentTimeMillis() - started);
+            }
+            long bootWaitMs = slave == null ? 0
+                    : ((VirtualMachineLauncher) slave.getLauncher()).getRetryPolicy().getInitialDelayMs();
+            if (!hypervisor.bootDomain(domain, vmName, bootWaitMs, null)) {
+                return new Result(vmName, true, "Already running", System.currentTimeMillis() - started);
+            }
+            slotTaken = false;
+            return new Result(vmName, true, "OK", System.currentTimeMillis() - started);
+        } catch (VirtException e) {
+            LOGGER.log(Level.WARNING, "{0} of {1} on {2} failed: {3}",
+                    new Object[]{action, vmName, hypervisor.getHypervisorDescription(), e.getMessage()});
+            return new Result(vmName, false, e.getMessage(), System.currentTimeMillis() - started);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(vmName, false, "Interrupted", System.currentTimeMillis() - started);
+        } finally {
+            if (slotTaken) {
+                // the domain did not start, give the slot back
+                try {
+                    hypervisor.markVMOffline(slaveName, vmName);
+                } catch (VirtException e) {
+                    // only accounting
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the libvirt slave of this hypervisor that runs on the domain, or null if no slave does
+     */
+    private VirtualMachineSlave findSlave(String vmName) {
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            if (node instanceof VirtualMachineSlave) {
+                VirtualMachineSlave slave = (VirtualMachineSlave) node;
+                if (vmName.equals(slave.getVirtualMachineName())
+                        && hypervisor.getHypervisorDescription().equals(slave.getHypervisorDescription())) {
+                    return slave;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,252 @@
+package hudson.plugins.libvirt;
+
+import hudson.model.Computer;
+import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.VirtException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * A cached view of the domains of one {@link Hypervisor} and their state, for the management pages.
+ * <p>
+ * Reading the state of every domain takes a few hypervisor calls per domain, far too slow to do while
+ * rendering a page. The inventory is refreshed in the background instead; every row carries the version
+ * at which it last changed, so a page only has to fetch what changed since its previous poll.
+ * <p>
+ * Only the latest {@link #MAX_REMOVED} removals are remembered; a page that polls from before the oldest of
+ * them has to reload.
+ */
+public class DomainInventory {
+
+    private static final Logger LOGGER = Logger.getLogger(DomainInventory.class.getName());
+
+    /**
+     * How old the inventory may get before a page view asks for a refresh.
+     */
+    public static final long MAX_AGE_MS = 15000;
+
+    /**
+     * How many removed domains are remembered for the pages that poll for changes.
+     */
+    public static final int MAX_REMOVED = Integer.getInteger(DomainInventory.class.getName() + ".maxRemoved", 1000);
+
+    /**
+     * The state of one domain as last seen.
+     */
+    public static final class Row {
+        private final String name;
+        private final boolean running;
+        private final List<String> snapshots;
+        private final long version;
+
+        Row(String name, boolean running, List<String> snapshots, long version) {
+            this.name = name;
+            this.running = running;
+            this.snapshots = snapshots;
+            this.version = version;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isRunning() {
+            return running;
+        }
+
+        public List<String> getSnapshots() {
+            return snapshots;
+        }
+
+        /**
+         * @return the inventory version at which this row last changed
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        boolean sameStateAs(boolean running, List<String> snapshots) {
+            return this.running == running && this.snapshots.equals(snapshots);
+        }
+    }
+
+    private final Hypervisor hypervisor;
+    private final TreeMap<String, Row> rows = new TreeMap<String, Row>();
+    private final Map<String, Long> removed = new HashMap<String, Long>();
+    private long removedForgottenUpTo;
+    private long version;
+    private long refreshedAt;
+    private boolean refreshing;
+
+    public DomainInventory(Hypervisor hypervisor) {
+        this.hypervisor = hypervisor;
+    }
+
+    /**
+     * @return the version of the latest refresh that changed something
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return when the inventory was last refreshed, 0 if never
+     */
+    public synchronized long getRefreshedAt() {
+        return refreshedAt;
+    }
+
+    public synchronized int size() {
+        return rows.size();
+    }
+
+    /**
+     * @param start the index of the first row, in name order
+     * @param limit the maximum number of rows
+     * @return the rows of the page
+     */
+    public synchronized List<Row> getPage(int start, int limit) {
+        List<Row> page = new ArrayList<Row>();
+        int index = 0;
+        for (Row row : rows.values()) {
+            if (index >= start + limit) {
+                break;
+            }
+            if (index >= start) {
+                page.add(row);
+            }
+            index++;
+        }
+        return page;
+    }
+
+    /**
+     * @param since an inventory version
+     * @return the domains that disappeared after that version
+     */
+    public synchronized List<String> getRemovedSince(long since) {
+        List<String> names = new ArrayList<String>();
+        for (Map.Entry<String, Long> entry : removed.entrySet()) {
+            if (entry.getValue() > since) {
+                names.add(entry.getKey());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * @param since an inventory version
+     * @return whether all domains that disappeared after that version are still known
+     */
+    public synchronized boolean isRemovedKnownSince(long since) {
+        return since >= removedForgottenUpTo;
+    }
+
+    /**
+     * Starts a background refresh unless the inventory is recent enough or a refresh is already running.
+     *
+     * @param maxAgeMs how old the inventory may be
+     */
+    public void refreshIfOlderThan(long maxAgeMs) {
+        synchronized (this) {
+            if (refreshing || System.currentTimeMillis() - refreshedAt < maxAgeMs) {
+                return;
+            }
+            refreshing = true;
+        }
+        Computer.threadPoolForRemoting.submit(new Runnable() {
+            public void run() {
+                try {
+                    doRefresh();
+                } finally {
+                    synchronized (DomainInventory.this) {
+                        refreshing = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts a background refresh right away, e.g. after domains were started or stopped from the UI.
+     */
+    public void invalidate() {
+        refreshIfOlderThan(0);
+    }
+
+    private void doRefresh() {
+        Map<String, IDomain> domains;
+        try {
+            domains = hypervisor.getDomains();
+        } catch (VirtException e) {
+            LogRecord rec = new LogRecord(Level.WARNING, "Failed to refresh the domain inventory of {0}.");
+            rec.setParameters(new Object[]{hypervisor.getHypervisorDescription()});
+            rec.setThrown(e);
+            LOGGER.log(rec);
+            return;
+        }
+
+        // read the state outside the lock, it takes a few calls per domain
+        Map<String, Boolean> running = new HashMap<String, Boolean>();
+        Map<String, List<String>> snapshots = new HashMap<String, List<String>>();
+        for (Map.Entry<String, IDomain> entry : domains.entrySet()) {
+            try {
+                running.put(entry.getKey(), entry.getValue().isRunningOrBlocked());
+                snapshots.put(entry.getKey(), Arrays.asList(entry.getValue().snapshotListNames()));
+            } catch (VirtException e) {
+                LOGGER.log(Level.FINE, "Failed to read the state of " + entry.getKey(), e);
+            }
+        }
+
+        synchronized (this) {
+            long next = version + 1;
+            boolean changed = false;
+            for (String name : running.keySet()) {
+                Row row = rows.get(name);
+                if (row == null || !row.sameStateAs(running.get(name), snapshots.get(name))) {
+                    rows.put(name, new Row(name, running.get(name), snapshots.get(name), next));
+                    removed.remove(name);
+                    changed = true;
+                }
+            }
+            for (String name : new ArrayList<String>(rows.keySet())) {
+                if (!domains.containsKey(name)) {
+                    rows.remove(name);
+                    removed.put(name, next);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                version = next;
+            }
+            if (removed.size() > MAX_REMOVED) {
+                forgetOldestRemoved();
+            }
+            refreshedAt = System.currentTimeMillis();
+        }
+    }
+
+    private void forgetOldestRemoved() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(removed.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return a.getValue().compareTo(b.getValue());
+            }
+        });
+        for (Map.Entry<String, Long> entry : entries.subList(0, entries.size() - MAX_REMOVED)) {
+            removedForgottenUpTo = Math.max(removedForgottenUpTo, entry.getValue());
+            removed.remove(entry.getKey());
+        }
+    }
+}
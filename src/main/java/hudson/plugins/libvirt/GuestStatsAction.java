@@ -0,0 +1,127 @@
+package hudson.plugins.libvirt;
+
+import hudson.model.Action;
+
+/**
+ * Summary of the resource usage of the slave VM while a build ran on it, shown on the build page.
+ * A high steal time or a shrunken balloon points at contention on the host rather than at the build itself.
+ */
+public class GuestStatsAction implements Action {
+
+    private final String hypervisorDescription;
+    private final String virtualMachineName;
+    private final int samples;
+    private final int intervalSeconds;
+    private final double averageCpuPercent;
+    private final double maxCpuPercent;
+    private final double stealPercent;
+    private final double maxStealPercent;
+    private final long minBalloonKb;
+    private final long memoryKb;
+    private final long diskReadBytes;
+    private final long diskWriteBytes;
+    private final long netRxBytes;
+    private final long netTxBytes;
+
+    public GuestStatsAction(String hypervisorDescription, String virtualMachineName, int samples, int intervalSeconds,
+                            double averageCpuPercent, double maxCpuPercent, double stealPercent, double maxStealPercent,
+                            long minBalloonKb, long memoryKb, long diskReadBytes, long diskWriteBytes,
+                            long netRxBytes, long netTxBytes) {
+        this.hypervisorDescription = hypervisorDescription;
+        this.virtualMachineName = virtualMachineName;
+        this.samples = samples;
+        this.intervalSeconds = intervalSeconds;
+        this.averageCpuPercent = averageCpuPercent;
+        this.maxCpuPercent = maxCpuPercent;
+        this.stealPercent = stealPercent;
+        this.maxStealPercent = maxStealPercent;
+        this.minBalloonKb = minBalloonKb;
+        this.memoryKb = memoryKb;
+        this.diskReadBytes = diskReadBytes;
+        this.diskWriteBytes = diskWriteBytes;
+        this.netRxBytes = netRxBytes;
+        this.netTxBytes = netTxBytes;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "Guest statistics";
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    public String getHypervisorDescription() {
+        return hypervisorDescription;
+    }
+
+    public String getVirtualMachineName() {
+        return virtualMachineName;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public int getIntervalSeconds() {
+        return intervalSeconds;
+    }
+
+    public double getAverageCpuPercent() {
+        return averageCpuPercent;
+    }
+
+    public double getMaxCpuPercent() {
+        return maxCpuPercent;
+    }
+
+    /**
+     * @return the share of the guest's CPU time taken by the host for other work, -1 if the guest didn't report it
+     */
+    public double getStealPercent() {
+        return stealPercent;
+    }
+
+    public double getMaxStealPercent() {
+        return maxStealPercent;
+    }
+
+    public long getMinBalloonKb() {
+        return minBalloonKb;
+    }
+
+    public long getMemoryKb() {
+        return memoryKb;
+    }
+
+    public long getDiskReadBytes() {
+        return diskReadBytes;
+    }
+
+    public long getDiskWriteBytes() {
+        return diskWriteBytes;
+    }
+
+    public long getNetRxBytes() {
+        return netRxBytes;
+    }
+
+    public long getNetTxBytes() {
+        return netTxBytes;
+    }
+
+    public String format(double percent) {
+        return String.format("%.1f%%", percent);
+    }
+
+    public String bytes(long bytes) {
+        if (bytes >= 1024L * 1024 * 1024) {
+            return String.format("%.1f GB", bytes / (1024.0 * 1024 * 1024));
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+}
@@ -0,0 +1,308 @@
+package hudson.plugins.libvirt;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.plugins.libvirt.lib.DomainStats;
+import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.VirtException;
+import hudson.plugins.libvirt.lib.VirtTimeoutException;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Samples the domain of a {@link VirtualMachineSlave} while a build runs on it and attaches a
+ * {@link GuestStatsAction} with the summary to the build.
+ * <p>
+ * CPU time, balloon size and block and network counters come from the hypervisor. Steal time is only
+ * visible inside the guest, so it is read from <code>/proc/stat</code> over the slave channel; guests
+ * other than Linux don't report it.
+ * <p>
+ * Samples are taken on a small pool of their own rather than the shared Jenkins timer, since both reads may
+ * block on a slow host or guest; the read over the channel is given up after {@link #CHANNEL_TIMEOUT_MS}.
+ */
+public class GuestStatsCollector {
+
+    private static final Logger LOGGER = Logger.getLogger(GuestStatsCollector.class.getName());
+
+    /**
+     * The number of threads taking samples, over all running builds.
+     */
+    public static final int SAMPLER_THREADS = Integer.getInteger(GuestStatsCollector.class.getName() + ".samplerThreads", 4);
+
+    /**
+     * How long the read of <code>/proc/stat</code> in the guest may take.
+     */
+    public static final long CHANNEL_TIMEOUT_MS = Long.getLong(GuestStatsCollector.class.getName() + ".channelTimeoutMs", 10000);
+
+    private static final ScheduledExecutorService SAMPLER = Executors.newScheduledThreadPool(SAMPLER_THREADS,
+            new NamingThreadFactory(new DaemonThreadFactory(), "Libvirt guest stats"));
+
+    private final Hypervisor hypervisor;
+    private final String vmName;
+    private IDomain domain;
+    private final VirtualChannel channel;
+    private final int intervalSeconds;
+    private ScheduledFuture<?> task;
+
+    private DomainStats first;
+    private DomainStats previous;
+    private long firstTime;
+    private long previousTime;
+    private long[] firstCpu;
+    private long[] previousCpu;
+    private int samples;
+    private double maxCpuPercent;
+    private double maxStealPercent = -1;
+    private long minBalloonKb = Long.MAX_VALUE;
+
+    GuestStatsCollector(Hypervisor hypervisor, String vmName, IDomain domain, VirtualChannel channel, int intervalSeconds) {
+        this.hypervisor = hypervisor;
+        this.vmName = vmName;
+        this.domain = domain;
+        this.channel = channel;
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    void start() {
+        sample();
+        task = SAMPLER.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                sample();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops sampling and summarizes the build.
+     *
+     * @return the summary, null if the domain could not be read at all
+     */
+    GuestStatsAction stop() {
+        cancel();
+        sample();
+        synchronized (this) {
+            if (first == null || previous == first) {
+                return null;
+            }
+            double seconds = (previousTime - firstTime) / 1000.0;
+            double averageCpu = cpuPercent(first, previous, seconds);
+            double steal = -1;
+            if (firstCpu != null && previousCpu != null) {
+                steal = stealPercent(firstCpu, previousCpu);
+            }
+            return new GuestStatsAction(hypervisor.getHypervisorDescription(), vmName, samples, intervalSeconds, averageCpu,
+                    maxCpuPercent, steal, maxStealPercent, minBalloonKb, previous.getMemoryKb(),
+                    previous.getDiskReadBytes() - first.getDiskReadBytes(),
+                    previous.getDiskWriteBytes() - first.getDiskWriteBytes(),
+                    previous.getNetRxBytes() - first.getNetRxBytes(),
+                    previous.getNetTxBytes() - first.getNetTxBytes());
+        }
+    }
+
+    /**
+     * Stops sampling without a summary, e.g. for a build that went away without completing.
+     */
+    void cancel() {
+        task.cancel(false);
+    }
+
+    /**
+     * Takes a sample. The reads happen outside the lock, so a slow read doesn't hold up the summary.
+     */
+    void sample() {
+        DomainStats stats;
+        IDomain domain;
+        synchronized (this) {
+            domain = this.domain;
+        }
+        try {
+            stats = domain.getStats();
+        } catch (VirtTimeoutException e) {
+            // the connection of the domain was abandoned, sample the next time on a new one
+            LOGGER.log(Level.FINE, "Timed out reading the statistics of " + vmName, e);
+            IDomain resolved = hypervisor.getDomainByName(vmName);
+            if (resolved != null) {
+                synchronized (this) {
+                    this.domain = resolved;
+                }
+            }
+            return;
+        } catch (VirtException e) {
+            LOGGER.log(Level.FINE, "Failed to read the statistics of " + vmName, e);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long[] cpu = readGuestCpu();
+        fold(stats, now, cpu);
+    }
+
+    private synchronized void fold(DomainStats stats, long now, long[] cpu) {
+        if (previous != null && now < previousTime) {
+            // overtaken by the final sample
+            return;
+        }
+        if (first == null || stats.getCpuTimeNanos() < previous.getCpuTimeNanos()) {
+            // first sample, or the domain was restarted under us
+            first = stats;
+            firstTime = now;
+            firstCpu = cpu;
+        } else {
+            maxCpuPercent = Math.max(maxCpuPercent, cpuPercent(previous, stats, (now - previousTime) / 1000.0));
+            if (cpu != null && previousCpu != null) {
+                maxStealPercent = Math.max(maxStealPercent, stealPercent(previousCpu, cpu));
+            }
+        }
+        minBalloonKb = Math.min(minBalloonKb, stats.getBalloonKb());
+        previous = stats;
+        previousTime = now;
+        previousCpu = cpu;
+        samples++;
+    }
+
+    private static double cpuPercent(DomainStats from, DomainStats to, double seconds) {
+        if (seconds <= 0) {
+            return 0;
+        }
+        return 100.0 * (to.getCpuTimeNanos() - from.getCpuTimeNanos()) / (seconds * 1e9 * Math.max(1, to.getVirtualCpus()));
+    }
+
+    private static double stealPercent(long[] from, long[] to) {
+        long total = to[0] - from[0];
+        return total <= 0 ? 0 : 100.0 * (to[1] - from[1]) / total;
+    }
+
+    private long[] readGuestCpu() {
+        if (channel == null) {
+            return null;
+        }
+        Future<long[]> future = null;
+        try {
+            future = channel.callAsync(new ProcStat());
+            return future.get(CHANNEL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            if (future != null) {
+                future.cancel(true);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads the total and the steal jiffies from the first line of <code>/proc/stat</code> in the guest. The total
+     * is the sum of the first eight columns, up to steal; the guest columns after it are already part of user
+     * and nice.
+     */
+    private static final class ProcStat implements Callable<long[], IOException> {
+        private static final long serialVersionUID = 1L;
+
+        public long[] call() throws IOException {
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/stat"));
+            try {
+                String[] fields = reader.readLine().trim().split("\\s+");
+                long total = 0;
+                for (int i = 1; i < fields.length && i <= 8; i++) {
+                    total += Long.parseLong(fields[i]);
+                }
+                long steal = fields.length > 8 ? Long.parseLong(fields[8]) : 0;
+                return new long[]{total, steal};
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Starts a collector when a build starts on a libvirt slave and turns it into a build action when it completes.
+     */
+    @Extension
+    public static final class RunListenerImpl extends RunListener<Run<?, ?>> {
+
+        /**
+         * The collectors of the running builds, by job name and build number.
+         */
+        private final Map<String, GuestStatsCollector> collectors = new ConcurrentHashMap<String, GuestStatsCollector>();
+
+        private static String key(Run<?, ?> r) {
+            return r.getParent().getFullName() + "#" + r.getNumber();
+        }
+
+        @Override
+        public void onStarted(Run<?, ?> r, TaskListener listener) {
+            Executor executor = r.getExecutor();
+            if (executor == null) {
+                return;
+            }
+            Computer computer = executor.getOwner();
+            Node node = computer.getNode();
+            if (!(node instanceof VirtualMachineSlave)) {
+                return;
+            }
+            VirtualMachineSlave slave = (VirtualMachineSlave) node;
+            if (slave.getGuestStatsIntervalSeconds() <= 0) {
+                return;
+            }
+            try {
+                Hypervisor hypervisor = ((VirtualMachineLauncher) slave.getLauncher()).getHypervisor();
+                IDomain domain = hypervisor.getDomainByName(slave.getVirtualMachineName());
+                if (domain == null) {
+                    return;
+                }
+                GuestStatsCollector collector = new GuestStatsCollector(hypervisor,
+                        slave.getVirtualMachineName(), domain, computer.getChannel(), slave.getGuestStatsIntervalSeconds());
+                collector.start();
+                collectors.put(key(r), collector);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to start collecting guest statistics for " + r, e);
+            }
+        }
+
+        @Override
+        public void onCompleted(Run<?, ?> r, TaskListener listener) {
+            GuestStatsCollector collector = collectors.remove(key(r));
+            if (collector == null) {
+                return;
+            }
+            GuestStatsAction action = collector.stop();
+            if (action != null) {
+                r.addAction(action);
+            }
+        }
+
+        @Override
+        public void onFinalized(Run<?, ?> r) {
+            discard(r);
+        }
+
+        @Override
+        public void onDeleted(Run<?, ?> r) {
+            discard(r);
+        }
+
+        private void discard(Run<?, ?> r) {
+            GuestStatsCollector collector = collectors.remove(key(r));
+            if (collector != null) {
+                collector.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package hudson.plugins.libvirt;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.plugins.libvirt.metrics.Histogram;
+import hudson.plugins.libvirt.metrics.LaunchMetrics;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Starts a spare VM when a launch takes longer than usual, and keeps whichever of the two comes online first.
+ * <p>
+ * Boot times have a long tail on a busy host. When a slave with hedged launches enabled is not online by
+ * the 90th percentile of its past launch times, another offline slave that can take the same queued work is
+ * started as well. The queue hands the work to the first one online; the other one is shut down again as soon
+ * as it is online and has nothing to do. Spares go through the same capacity checks as any other launch.
+ * <p>
+ * A launch is hedged at most once. Everything kept about it is dropped when the launch ends, one way or the
+ * other, and at the latest {@link #SETTLE_MS} after the hedge was due.
+ */
+public final class HedgedLaunches {
+
+    private static final Logger LOGGER = Logger.getLogger(HedgedLaunches.class.getName());
+
+    /**
+     * The number of past launches of a VM needed before its launches are hedged.
+     */
+    public static final int MIN_SAMPLES = Integer.getInteger(HedgedLaunches.class.getName() + ".minSamples", 5);
+
+    /**
+     * The number of spares that may be booting at the same time, over all hypervisors.
+     */
+    public static final int MAX_SPARES = Integer.getInteger(HedgedLaunches.class.getName() + ".maxSpares", 4);
+
+    /**
+     * How long after a hedge was due its state is kept at most, should the launches never report back.
+     */
+    public static final long SETTLE_MS = Long.getLong(HedgedLaunches.class.getName() + ".settleMs", 10 * 60 * 1000);
+
+    /**
+     * The slaves whose current launch is armed, to a token of that launch.
+     */
+    private static final Map<String, Object> ARMED = new HashMap<String, Object>();
+    private static final Map<String, String> PARTNERS = new HashMap<String, String>();
+    private static final Set<String> LOSERS = new HashSet<String>();
+    private static int spares;
+
+    private HedgedLaunches() {
+    }
+
+    /**
+     * Arms the hedge of a launch that was just started.
+     *
+     * @param primary the slave being launched
+     */
+    static void launched(final VirtualMachineSlaveComputer primary) {
+        VirtualMachineLauncher launcher = (VirtualMachineLauncher) primary.getLauncher();
+        Histogram online = LaunchMetrics.get(launcher.getHypervisor().getHypervisorDescription(),
+                launcher.getVirtualMachineName(), "online");
+        if (online == null || online.getCount() < MIN_SAMPLES) {
+            return;
+        }
+        final String name = primary.getName();
+        final Object attempt = new Object();
+        synchronized (HedgedLaunches.class) {
+            if (ARMED.containsKey(name) || PARTNERS.containsKey(name)) {
+                return;
+            }
+            ARMED.put(name, attempt);
+        }
+        long hedgeAfter = online.getPercentile(0.9);
+        Timer.get().schedule(new Runnable() {
+            public void run() {
+                hedge(primary);
+            }
+        }, hedgeAfter, TimeUnit.MILLISECONDS);
+        Timer.get().schedule(new Runnable() {
+            public void run() {
+                synchronized (HedgedLaunches.class) {
+                    if (ARMED.get(name) == attempt) {
+                        ARMED.remove(name);
+                    }
+                }
+            }
+        }, hedgeAfter + SETTLE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drops what is kept about the launch of a slave once it ended without the slave getting online.
+     *
+     * @param name the slave
+     */
+    static synchronized void launchEnded(String name) {
+        ARMED.remove(name);
+        LOSERS.remove(name);
+        String partner = PARTNERS.remove(name);
+        if (partner != null) {
+            PARTNERS.remove(partner);
+            spares--;
+        }
+    }
+
+    private static void hedge(VirtualMachineSlaveComputer primary) {
+        if (primary.isOnline() || !primary.isConnecting()) {
+            return;
+        }
+        Queue.BuildableItem item = findWaitingItem(primary.getNode());
+        if (item == null) {
+            return;
+        }
+        VirtualMachineSlaveComputer spare = findSpare(primary, item);
+        if (spare == null) {
+            return;
+        }
+        synchronized (HedgedLaunches.class) {
+            if (spares >= MAX_SPARES || !ARMED.containsKey(primary.getName()) || PARTNERS.containsKey(primary.getName()) || PARTNERS.containsKey(spare.getName())) {
+                return;
+            }
+            spares++;
+            PARTNERS.put(primary.getName(), spare.getName());
+            PARTNERS.put(spare.getName(), primary.getName());
+        }
+        LOGGER.log(Level.INFO, "{0} is not online after the usual launch time, also starting {1} for {2}",
+                new Object[]{primary.getName(), spare.getName(), item.task.getDisplayName()});
+        final String primaryName = primary.getName();
+        final String spareName = spare.getName();
+        Timer.get().schedule(new Runnable() {
+            public void run() {
+                dissolve(primaryName, spareName);
+            }
+        }, SETTLE_MS, TimeUnit.MILLISECONDS);
+        spare.connect(false);
+    }
+
+    /**
+     * Gives up on a pair that neither settled nor failed in time.
+     */
+    private static synchronized void dissolve(String primary, String spare) {
+        if (spare.equals(PARTNERS.get(primary))) {
+            PARTNERS.remove(primary);
+            PARTNERS.remove(spare);
+            spares--;
+        }
+        LOSERS.remove(primary);
+        LOSERS.remove(spare);
+    }
+
+    private static Queue.BuildableItem findWaitingItem(Node node) {
+        if (node == null) {
+            return null;
+        }
+        for (Queue.BuildableItem item : Queue.getInstance().getBuildableItems()) {
+            if (node.canTake(item) == null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private static VirtualMachineSlaveComputer findSpare(VirtualMachineSlaveComputer primary, Queue.BuildableItem item) {
+        for (Computer c : Jenkins.getInstance().getComputers()) {
+            if (!(c instanceof VirtualMachineSlaveComputer) || c == primary || !c.isOffline() || c.isConnecting()) {
+                continue;
+            }
+            VirtualMachineSlaveComputer candidate = (VirtualMachineSlaveComputer) c;
+            Node node = candidate.getNode();
+            if (node == null || !(candidate.getRetentionStrategy() instanceof LibvirtRetentionStrategy)
+                    || node.canTake(item) != null) {
+                continue;
+            }
+            if (candidate.getRetentionStrategy().isManualLaunchAllowed(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Settles the race once one of the two comes online: the other one is returned to the pool as soon as
+     * it is online and idle.
+     */
+    @Extension
+    public static class ListenerImpl extends ComputerListener {
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            if (!(c instanceof VirtualMachineSlaveComputer)) {
+                return;
+            }
+            String loser;
+            synchronized (HedgedLaunches.class) {
+                ARMED.remove(c.getName());
+                if (LOSERS.remove(c.getName())) {
+                    loser = c.getName();
+                } else {
+                    String partner = PARTNERS.remove(c.getName());
+                    if (partner == null) {
+                        return;
+                    }
+                    PARTNERS.remove(partner);
+                    spares--;
+                    loser = partner;
+                    Computer other = Jenkins.getInstance().getComputer(partner);
+                    if (other == null || !other.isOnline()) {
+                        // still booting, settle it when it gets online
+                        if (other != null && other.isConnecting()) {
+                            LOSERS.add(partner);
+                        }
+                        return;
+                    }
+                }
+            }
+            release(loser);
+        }
+
+        @Override
+        public void onLaunchFailure(Computer c, TaskListener listener) {
+            launchEnded(c.getName());
+        }
+
+        @Override
+        public void onOffline(Computer c) {
+            synchronized (HedgedLaunches.class) {
+                ARMED.remove(c.getName());
+                LOSERS.remove(c.getName());
+            }
+        }
+    }
+
+    private static void release(String name) {
+        Computer c = Jenkins.getInstance().getComputer(name);
+        if (!(c instanceof VirtualMachineSlaveComputer) || !c.isOnline() || !c.isIdle()) {
+            return;
+        }
+        VirtualMachineSlaveComputer vm = (VirtualMachineSlaveComputer) c;
+        if (findWaitingItem(vm.getNode()) != null) {
+            // more work arrived in the meantime, keep it
+            return;
+        }
+        LOGGER.log(Level.INFO, "{0} lost the hedged launch, returning it to the pool", name);
+        vm.disconnect(new OfflineCause.ByCLI("Lost a hedged launch, returning to the pool."));
+    }
+}
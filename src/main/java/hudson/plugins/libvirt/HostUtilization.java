@@ -0,0 +1,125 @@
+package hudson.plugins.libvirt;
+
+import hudson.plugins.libvirt.lib.DomainStats;
+import hudson.plugins.libvirt.lib.HostStats;
+import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.VirtException;
+import hudson.plugins.libvirt.metrics.Utilization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The resource usage history of one {@link Hypervisor} and its running domains.
+ * <p>
+ * Filled by the {@link UtilizationSampler}, so the dashboard only reads memory. Host CPU usage is the CPU
+ * time of all running domains relative to the CPUs of the host; disk and network are the sums over the domains.
+ */
+public class HostUtilization {
+
+    private static final Logger LOGGER = Logger.getLogger(HostUtilization.class.getName());
+
+    /**
+     * The number of samples kept per metric; one hour at the default interval.
+     */
+    public static final int CAPACITY = 120;
+
+    private final Hypervisor hypervisor;
+    private final Utilization host;
+    private final ConcurrentMap<String, Utilization> domains = new ConcurrentHashMap<String, Utilization>();
+    private Map<String, DomainStats> previous = new HashMap<String, DomainStats>();
+    private long previousTime;
+
+    public HostUtilization(Hypervisor hypervisor) {
+        this.hypervisor = hypervisor;
+        this.host = new Utilization(hypervisor.getHypervisorHost(), CAPACITY);
+    }
+
+    public Utilization getHost() {
+        return host;
+    }
+
+    /**
+     * @return the usage of the domains that were running at the last sample, by name
+     */
+    public List<Utilization> getDomains() {
+        List<Utilization> result = new ArrayList<Utilization>(domains.values());
+        Collections.sort(result, new Comparator<Utilization>() {
+            public int compare(Utilization a, Utilization b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads the counters of the host and of every running domain and records the usage since the previous sample.
+     *
+     * @throws VirtException if the host can't be queried
+     */
+    public synchronized void sample() throws VirtException {
+        HostStats hostStats = hypervisor.getHostStats();
+        Map<String, IDomain> running = hypervisor.getRunningDomains();
+        long now = System.currentTimeMillis();
+
+        Map<String, DomainStats> current = new HashMap<String, DomainStats>();
+        for (Map.Entry<String, IDomain> entry : running.entrySet()) {
+            try {
+                current.put(entry.getKey(), entry.getValue().getStats());
+            } catch (VirtException e) {
+                LOGGER.log(Level.FINE, "Failed to read the statistics of " + entry.getKey(), e);
+            }
+        }
+
+        double seconds = (now - previousTime) / 1000.0;
+        if (previousTime > 0 && seconds > 0) {
+            double cpuNanos = 0, diskRead = 0, diskWrite = 0, netRx = 0, netTx = 0;
+            for (Map.Entry<String, DomainStats> entry : current.entrySet()) {
+                DomainStats latest = entry.getValue();
+                DomainStats before = previous.get(entry.getKey());
+                if (before == null || latest.getCpuTimeNanos() < before.getCpuTimeNanos()) {
+                    // just started or restarted, no rate yet
+                    continue;
+                }
+                double domainCpu = (latest.getCpuTimeNanos() - before.getCpuTimeNanos()) / (seconds * 1e9);
+                double read = rate(before.getDiskReadBytes(), latest.getDiskReadBytes(), seconds);
+                double written = rate(before.getDiskWriteBytes(), latest.getDiskWriteBytes(), seconds);
+                double received = rate(before.getNetRxBytes(), latest.getNetRxBytes(), seconds);
+                double sent = rate(before.getNetTxBytes(), latest.getNetTxBytes(), seconds);
+                double memory = hostStats.getMemoryKb() > 0 ? 100.0 * latest.getMemoryKb() / hostStats.getMemoryKb() : 0;
+
+                Utilization domain = domains.get(entry.getKey());
+                if (domain == null) {
+                    domain = new Utilization(entry.getKey(), CAPACITY);
+                    domains.put(entry.getKey(), domain);
+                }
+                domain.record(now, 100.0 * domainCpu / Math.max(1, latest.getVirtualCpus()), memory, read, written, received, sent);
+
+                cpuNanos += latest.getCpuTimeNanos() - before.getCpuTimeNanos();
+                diskRead += read;
+                diskWrite += written;
+                netRx += received;
+                netTx += sent;
+            }
+            double hostCpu = 100.0 * cpuNanos / (seconds * 1e9 * Math.max(1, hostStats.getCpus()));
+            double hostMemory = hostStats.getMemoryKb() > 0
+                    ? 100.0 * (hostStats.getMemoryKb() - hostStats.getFreeMemoryKb()) / hostStats.getMemoryKb() : 0;
+            host.record(now, hostCpu, hostMemory, diskRead, diskWrite, netRx, netTx);
+        }
+        domains.keySet().retainAll(current.keySet());
+        previous = current;
+        previousTime = now;
+    }
+
+    private static double rate(long before, long after, double seconds) {
+        return after < before ? 0 : (after - before) / seconds;
+    }
+}
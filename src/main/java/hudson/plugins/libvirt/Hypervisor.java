@@ -36,10 +36,16 @@ import hudson.model.AbstractProject;
 import hudson.model.Descriptor;
 import hudson.model.ItemGroup;
 import hudson.model.Label;
+import hudson.model.Node;
 import hudson.plugins.libvirt.lib.ConnectionBuilder;
+import hudson.plugins.libvirt.lib.HostStats;
 import hudson.plugins.libvirt.lib.IConnect;
 import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.VirtBusyException;
 import hudson.plugins.libvirt.lib.VirtException;
+import hudson.plugins.libvirt.lib.instrumented.CallTimeouts;
+import hudson.plugins.libvirt.lib.instrumented.InstrumentedConnectImpl;
+import hudson.plugins.libvirt.metrics.PhaseTimer;
 import hudson.plugins.libvirt.lib.libvirt.LibVirtConnectImpl;
 import hudson.security.ACL;
 import hudson.slaves.Cloud;
@@ -50,11 +56,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -77,6 +87,11 @@ public class Hypervisor extends Cloud {
 
     private static final Logger LOGGER = Logger.getLogger(Hypervisor.class.getName());
 
+    /**
+     * The number of locks the domains of one hypervisor are spread over.
+     */
+    public static final int DOMAIN_LOCK_STRIPES = Integer.getInteger(Hypervisor.class.getName() + ".domainLockStripes", 32);
+
     //configuration values
     private final String hypervisorType;
     private final String hypervisorHost;
@@ -86,17 +101,43 @@ public class Hypervisor extends Cloud {
     private final boolean useNativeJavaConnection;
     private final String credentialsId;
     private final int maxOnlineSlaves;
-
+    private final String orphanPolicy;
+    private final int orphanGracePeriodMinutes;
+    private final int maxConcurrentBoots;
+    private final int bootIntervalSeconds;
+    private final int callTimeoutSeconds;
+    private final String operationTimeouts;
 
 
     //State
     private transient Hashtable<String, String> currentOnline;
+    private transient Set<String> shuttingDown;
+    private transient Map<String, Long> leakedSince;
+    private transient Semaphore batchPermits;
+    private transient BootThrottle bootThrottle;
+    private transient DomainInventory inventory;
+    private transient HostUtilization utilization;
+    private transient SnapshotCache snapshotCache;
+    private transient ConcurrentMap<String, VirtualMachine> virtualMachines;
+    private transient volatile String hypervisorUri;
+    private transient StandardUsernameCredentials credentials;
+    private transient boolean credentialsResolved;
     private transient IConnect connection;
 
+    // Lock order: domain stripe, then this (inventory refresh), then connectionLock or capacityLock.
+    private transient StripedLock domainLocks;
+    private transient Object connectionLock;
+    private transient Object capacityLock;
+    private transient CallTimeouts callTimeouts;
+    private transient CircuitBreaker circuitBreaker;
+    private transient LaunchQuarantine launchQuarantine;
+
 
     @DataBoundConstructor
     public Hypervisor(String hypervisorType, String hypervisorHost, int hypervisorSshPort, String hypervisorSystemUrl, String username, int maxOnlineSlaves,
-                      boolean useNativeJavaConnection, String credentialsId) {
+                      boolean useNativeJavaConnection, String credentialsId, String orphanPolicy,
+                      int orphanGracePeriodMinutes, int maxConcurrentBoots, int bootIntervalSeconds,
+                      int callTimeoutSeconds, String operationTimeouts) {
         super("Hypervisor(libvirt)");
         this.hypervisorType = hypervisorType;
         this.hypervisorHost = hypervisorHost;
@@ -110,42 +151,158 @@ public class Hypervisor extends Cloud {
         this.maxOnlineSlaves = maxOnlineSlaves;
         this.useNativeJavaConnection = useNativeJavaConnection;
         this.credentialsId = credentialsId;
+        this.orphanPolicy = orphanPolicy;
+        this.orphanGracePeriodMinutes = orphanGracePeriodMinutes;
+        this.maxConcurrentBoots = maxConcurrentBoots;
+        this.bootIntervalSeconds = bootIntervalSeconds;
+        this.callTimeoutSeconds = callTimeoutSeconds;
+        this.operationTimeouts = operationTimeouts;
+        initTransients();
+    }
+
+    protected Object readResolve() {
+        initTransients();
+        return this;
+    }
+
+    /**
+     * Creates the locks and per-host helpers up front, so reading them never needs a lock of its own.
+     */
+    private void initTransients() {
+        domainLocks = new StripedLock(DOMAIN_LOCK_STRIPES);
+        connectionLock = new Object();
+        capacityLock = new Object();
+        callTimeouts = createCallTimeouts();
+        circuitBreaker = new CircuitBreaker();
+        launchQuarantine = new LaunchQuarantine(getHypervisorDescription());
+        batchPermits = new Semaphore(DomainBatch.HOST_CONCURRENCY, true);
+        bootThrottle = new BootThrottle(maxConcurrentBoots, bootIntervalSeconds * 1000L);
+        inventory = new DomainInventory(this);
+        utilization = new HostUtilization(this);
+        snapshotCache = new SnapshotCache(this);
+        virtualMachines = new ConcurrentHashMap<String, VirtualMachine>();
+        ensureLists();
     }
 
     protected void ensureLists() {
         if (currentOnline == null)
             currentOnline = new Hashtable<String, String>();
+        if (shuttingDown == null)
+            shuttingDown = new HashSet<String>();
+        if (leakedSince == null)
+            leakedSince = new HashMap<String, Long>();
     }
 
     private ConnectionBuilder createBuilder() {
         return ConnectionBuilder.newBuilder()
                 .hypervisorType(hypervisorType)
                 .userName(username)
-                .withCredentials(lookupSystemCredentials(credentialsId))
+                .withCredentials(getCredentials())
                 .hypervisorHost(hypervisorHost)
                 .hypervisorPort(hypervisorSshPort)
                 .hypervisorSysUrl(hypervisorSystemUrl)
                 .useNativeJava(useNativeJavaConnection);
     }
 
-    private synchronized IConnect getOrCreateConnection() throws VirtException {
+    /**
+     * Returns the credentials for the connection, looked up once and kept until the credentials
+     * or the Jenkins configuration change.
+     */
+    private StandardUsernameCredentials getCredentials() {
+        synchronized (connectionLock) {
+            if (!credentialsResolved) {
+                credentials = lookupSystemCredentials(credentialsId);
+                credentialsResolved = true;
+            }
+            return credentials;
+        }
+    }
+
+    /**
+     * Forgets the resolved credentials, so the next connection looks them up again.
+     *
+     * @see HypervisorRegistryListener
+     */
+    public void invalidateCredentials() {
+        synchronized (connectionLock) {
+            credentials = null;
+            credentialsResolved = false;
+        }
+    }
+
+    private IConnect getOrCreateConnection() throws VirtException {
+        if (!circuitBreaker.allowRequest()) {
+            throw new VirtException("Hypervisor " + getHypervisorDescription() + " is unavailable, next connection attempt in "
+                    + (circuitBreaker.getRetryInMs() + 999) / 1000 + "s");
+        }
+        boolean connected = false;
+        boolean busy = false;
+        try {
+            synchronized (connectionLock) {
+                IConnect con = connect();
+                connected = con != null;
+                return con;
+            }
+        } catch (VirtBusyException e) {
+            // the calls are queued up here, the host itself may well be fine
+            busy = true;
+            throw e;
+        } finally {
+            if (connected) {
+                circuitBreaker.recordSuccess();
+            } else if (busy) {
+                circuitBreaker.recordInconclusive();
+            } else {
+                circuitBreaker.recordFailure();
+            }
+        }
+    }
+
+    /**
+     * Returns the breaker that rejects calls to this hypervisor while its host can't be reached.
+     *
+     * @return the circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Returns the record of failed launches, which holds back VMs that keep failing to come online.
+     *
+     * @return the launch quarantine
+     */
+    public LaunchQuarantine getLaunchQuarantine() {
+        return launchQuarantine;
+    }
+
+    /**
+     * @return whether calls to this hypervisor are let through; false while its host is known to be down
+     */
+    public boolean isAvailable() {
+        return circuitBreaker.isAvailable();
+    }
+
+    private IConnect connect() throws VirtException {
 
     	if (connection == null || !connection.isConnected()) {
 
             ConnectionBuilder builder = createBuilder();
 
 	        LOGGER.log(Level.INFO, "Trying to establish a connection to hypervisor URI: {0} as {1}/******",
-	                new Object[]{builder.constructHypervisorURI(), username});
+	                new Object[]{getHypervisorURI(), username});
 	        
 	        try {
-	            connection = builder.build();
+	            connection = InstrumentedConnectImpl.connect(builder, getHypervisorDescription(), callTimeouts);
 
 	            LOGGER.log(Level.INFO, "Established connection to hypervisor URI: {0} as {1}/******",
-	                    new Object[]{builder.constructHypervisorURI(), username});
+	                    new Object[]{getHypervisorURI(), username});
 	        } catch (VirtException e) {
+	            connection = null;
+	            invalidateCredentials();
 	            LogRecord rec = new LogRecord(Level.SEVERE, "Failed to establish connection to hypervisor URI: {0} as {1}/******");
 	            rec.setThrown(e);
-	            rec.setParameters(new Object[]{builder.constructHypervisorURI(), username});
+	            rec.setParameters(new Object[]{getHypervisorURI(), username});
 	            LOGGER.log(rec);
 	        }
     	} else {
@@ -153,17 +310,22 @@ public class Hypervisor extends Cloud {
     			// the connection appears to be up but might actually be dead (e.g. due to a restart of libvirtd) 
     			// lets try a simple function call and see if it turns out ok
     			connection.getVersion();
+    		} catch (VirtBusyException e) {
+    			// the connection is busy, not broken
+    			throw e;
     		} catch (VirtException lve) {
                 ConnectionBuilder builder = createBuilder();
     			LogRecord rec = new LogRecord(Level.WARNING, "Connection appears to be broken, trying to reconnect: {0} as {1}/******");
-	            rec.setParameters(new Object[]{builder.constructHypervisorURI(), username});
+	            rec.setParameters(new Object[]{getHypervisorURI(), username});
 	            LOGGER.log(rec);
 	            try {
-                    connection = builder.build();
+                    connection = InstrumentedConnectImpl.connect(builder, getHypervisorDescription(), callTimeouts);
 	            } catch (VirtException lve2) {
+	            	connection = null;
+	            	invalidateCredentials();
 	            	rec = new LogRecord(Level.SEVERE, "Failed to re-establish connection to hypervisor URI: {0} as {1}/******");
 		            rec.setThrown(lve2);
-		            rec.setParameters(new Object[]{builder.constructHypervisorURI(), username});
+		            rec.setParameters(new Object[]{getHypervisorURI(), username});
 		            LOGGER.log(rec);
 	            }
     		}
@@ -173,6 +335,28 @@ public class Hypervisor extends Cloud {
 
 
 
+    /**
+     * Opens the connection to the hypervisor unless it is open already, e.g. to time it apart from the calls
+     * made on it.
+     *
+     * @return the connection, or null if it can't be established
+     * @throws VirtException if the hypervisor is known to be down or too busy
+     */
+    IConnect getConnection() throws VirtException {
+        return getOrCreateConnection();
+    }
+
+    /**
+     * Replaces the connection to the hypervisor, for benchmarks and tests that run against a stand-in.
+     *
+     * @param connection the connection to use from now on
+     */
+    void setConnection(IConnect connection) {
+        synchronized (connectionLock) {
+            this.connection = connection;
+        }
+    }
+
     public String getHypervisorHost() {
         return hypervisorHost;
     }
@@ -205,15 +389,126 @@ public class Hypervisor extends Cloud {
         return maxOnlineSlaves;
     }
 
-    public synchronized int getCurrentOnlineSlaveCount() {
-        ensureLists();
-        return currentOnline.size();
+    /**
+     * What to do with a domain that is running while its slave is not online, e.g. after a restart of Jenkins:
+     * <code>keep</code> it running and count it against the capacity, or <code>shutdown</code> it.
+     *
+     * @return the orphan policy, never null
+     */
+    public String getOrphanPolicy() {
+        return orphanPolicy == null ? "keep" : orphanPolicy;
+    }
+
+    public int getOrphanGracePeriodMinutes() {
+        return orphanGracePeriodMinutes;
+    }
+
+    /**
+     * @return the number of domains allowed to boot at the same time, 0 for no limit
+     */
+    public int getMaxConcurrentBoots() {
+        return maxConcurrentBoots;
+    }
+
+    /**
+     * @return the minimum number of seconds between two domain boots, 0 to boot right away
+     */
+    public int getBootIntervalSeconds() {
+        return bootIntervalSeconds;
+    }
+
+    /**
+     * @return the deadline of a call to the hypervisor in seconds, 0 for the default, less than 0 for none
+     */
+    public int getCallTimeoutSeconds() {
+        return callTimeoutSeconds;
+    }
+
+    /**
+     * @return the deadlines of single operations, e.g. <code>revertToSnapshot=900</code>
+     */
+    public String getOperationTimeouts() {
+        return operationTimeouts;
+    }
+
+    /**
+     * @return the deadlines the calls to this hypervisor run under
+     */
+    public CallTimeouts getCallTimeouts() {
+        return callTimeouts;
+    }
+
+    private CallTimeouts createCallTimeouts() {
+        int seconds = callTimeoutSeconds == 0 ? CallTimeouts.DEFAULT_SECONDS : callTimeoutSeconds;
+        Map<String, Integer> overrides;
+        try {
+            overrides = CallTimeouts.parseOverrides(operationTimeouts);
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Ignoring the operation timeouts of {0}: {1}",
+                    new Object[]{getHypervisorDescription(), e.getMessage()});
+            overrides = Collections.emptyMap();
+        }
+        return new CallTimeouts(seconds, overrides);
+    }
+
+    /**
+     * Returns the throttle that launches pass before they boot a domain on this host.
+     *
+     * @return the boot throttle
+     */
+    public BootThrottle getBootThrottle() {
+        return bootThrottle;
+    }
+
+    /**
+     * Returns the cached domain inventory of this host, which the management pages read from.
+     *
+     * @return the domain inventory
+     */
+    public DomainInventory getInventory() {
+        return inventory;
+    }
+
+    /**
+     * Returns the resource usage history of this host, as sampled by the {@link UtilizationSampler}.
+     *
+     * @return the utilization history
+     */
+    public HostUtilization getUtilization() {
+        return utilization;
+    }
+
+    public int getCurrentOnlineSlaveCount() {
+        synchronized (capacityLock) {
+            ensureLists();
+            return currentOnline.size();
+        }
+    }
+
+    /**
+     * Returns the number of VMs that have been asked to shut down but have not reached the shut-off state yet.
+     * These still occupy resources on the host and therefore count against the capacity.
+     *
+     * @return the number of VMs still shutting down
+     */
+    public int getShuttingDownCount() {
+        synchronized (capacityLock) {
+            ensureLists();
+            return shuttingDown.size();
+        }
     }
 
     public String getHypervisorDescription() {
         return getHypervisorType() + " - " + getHypervisorHost();
     }
 
+    /**
+     * Lists all domains of the host. Listing is the only operation serialized per hypervisor; work on
+     * single domains is ordered by {@link #getDomainLock(String)} instead.
+     *
+     * @return the domains by name
+     * @throws VirtException if the hypervisor can't be queried
+     */
     public synchronized Map<String, IDomain> getDomains() throws VirtException {
         Map<String, IDomain> domains = new HashMap<String, IDomain>();
         IConnect con = getOrCreateConnection();
@@ -253,27 +548,128 @@ public class Hypervisor extends Cloud {
         return domains;
     }
 
+    /**
+     * Returns the domains that are currently running or blocked on the hypervisor.
+     * Paused and shut off domains are left out.
+     *
+     * @return the running domains by name
+     * @throws VirtException if the hypervisor can't be queried
+     */
+    public synchronized Map<String, IDomain> getRunningDomains() throws VirtException {
+        Map<String, IDomain> domains = new HashMap<String, IDomain>();
+        IConnect con = getOrCreateConnection();
+        if (con == null) {
+            throw new VirtException("Cannot connect to Hypervisor " + hypervisorHost);
+        }
+        for (int id : con.listDomains()) {
+            try {
+                IDomain domain = con.domainLookupByID(id);
+                if (domain.isRunningOrBlocked()) {
+                    domains.put(domain.getName(), domain);
+                }
+            } catch (VirtException e) {
+                LogRecord rec = new LogRecord(Level.WARNING, "Error retrieving information for domain with id: {0}.");
+                rec.setParameters(new Object[]{id});
+                rec.setThrown(e);
+                LOGGER.log(rec);
+            }
+        }
+        return domains;
+    }
+
+    /**
+     * Returns the names of the domains that are currently running or blocked on the hypervisor.
+     *
+     * @return the names of the running domains
+     * @throws VirtException if the hypervisor can't be queried
+     */
+    public List<String> getRunningDomainNames() throws VirtException {
+        return new ArrayList<String>(getRunningDomains().keySet());
+    }
+
+    /**
+     * @return the size and memory usage of the host
+     * @throws VirtException if the hypervisor can't be queried
+     */
+    public HostStats getHostStats() throws VirtException {
+        IConnect con = getOrCreateConnection();
+        if (con == null) {
+            throw new VirtException("Cannot connect to Hypervisor " + hypervisorHost);
+        }
+        return con.getHostStats();
+    }
+
+    /**
+     * Looks a single domain up by name, without listing the other domains of the host.
+     *
+     * @param name the name of the domain
+     * @return the domain, or null if it doesn't exist or the hypervisor can't be reached
+     */
     public IDomain getDomainByName(String name) {
         try {
-           return getDomains().get(name);
+            return findDomain(name);
+        } catch (VirtBusyException e) {
+            LOGGER.log(Level.FINE, "Failed to look up domain " + name + " on " + getHypervisorDescription(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Like {@link #getDomainByName(String)}, but tells a busy hypervisor apart from a missing domain.
+     *
+     * @param name the name of the domain
+     * @return the domain, or null if it doesn't exist or the hypervisor can't be reached
+     * @throws VirtBusyException if the lookup could not start because too many calls to the hypervisor are running
+     */
+    IDomain findDomain(String name) throws VirtBusyException {
+        try {
+            IConnect con = getOrCreateConnection();
+            return con == null ? null : con.domainLookupByName(name);
+        } catch (VirtBusyException e) {
+            throw e;
         } catch (VirtException e) {
+            LOGGER.log(Level.FINE, "Failed to look up domain " + name + " on " + getHypervisorDescription(), e);
             return null;
         }
     }
+    /**
+     * Returns the {@link VirtualMachine} handle for a VM on this hypervisor without asking libvirt; the
+     * handle is created once per name. Whether the VM exists is only known when its domain is looked up.
+     *
+     * @param name the name of the vm
+     * @return the handle
+     */
+    public VirtualMachine getVirtualMachine(String name) {
+        ConcurrentMap<String, VirtualMachine> vms = virtualMachines;
+        VirtualMachine vm = vms.get(name);
+        if (vm == null) {
+            VirtualMachine created = new VirtualMachine(this, name);
+            vm = vms.putIfAbsent(name, created);
+            if (vm == null) {
+                vm = created;
+            }
+        }
+        return vm;
+    }
+
     /**
      * Returns a <code>List</code> of VMs configured on the hypervisor. This method always retrieves the current list of
      * VMs to ensure that newly available instances show up right away.
      * 
      * @return the virtual machines
      */
-    public synchronized List<VirtualMachine> getVirtualMachines() {
+    public List<VirtualMachine> getVirtualMachines() {
     	List<VirtualMachine> vmList = new ArrayList<VirtualMachine>();
         try {
         	Map<String, IDomain> domains = getDomains();
             for (String domainName : domains.keySet()) {
-                vmList.add(new VirtualMachine(this, domainName));
+                vmList.add(getVirtualMachine(domainName));
             }
         } catch (Exception e) {
+            if (!isAvailable()) {
+                LOGGER.log(Level.FINE, "Not listing the VMs of {0}: {1}", new Object[]{getHypervisorDescription(), e.getMessage()});
+                return vmList;
+            }
             LogRecord rec = new LogRecord(Level.SEVERE, "Cannot connect to datacenter {0} as {1}/******");
             rec.setThrown(e);
             rec.setParameters(new Object[]{hypervisorHost, username});
@@ -283,27 +679,101 @@ public class Hypervisor extends Cloud {
     }
 
     /**
-     * Returns an array of snapshots names/ids of a given VM as found by libvirt.
+     * Returns an array of snapshots names/ids of a given VM. The names come from the {@link SnapshotCache},
+     * so they may be a few minutes old.
      * 
      * @param virtualMachineName 	the name of the vm
      * @return 						the array of snapshot ids (can be empty)
      */
-    public synchronized String[] getSnapshots (String virtualMachineName) {
-    	try {
-	        for (IDomain domain : getDomains().values()) {
-	        	if (domain.getName().equals(virtualMachineName)) {
-	        		LogRecord rec = new LogRecord(Level.FINE, "Fetching snapshots for " + virtualMachineName + ": " + domain.snapshotNum());
-	        		LOGGER.log(rec);
-	        		return domain.snapshotListNames();
-	        	}
-	        }
-    	} catch (VirtException lve) {
-    		LogRecord rec = new LogRecord(Level.SEVERE, "Failed to fetch snapshot ids for VM {0} at datacenter {1} as {2}/******");
-            rec.setThrown(lve);
-            rec.setParameters(new Object[]{virtualMachineName, hypervisorHost, username});
+    public String[] getSnapshots (String virtualMachineName) {
+        return getSnapshotCache().get(virtualMachineName);
+    }
+
+    public SnapshotCache getSnapshotCache() {
+        return snapshotCache;
+    }
+
+    /**
+     * Reads the snapshot names of a VM from libvirt, bypassing the cache.
+     *
+     * @param virtualMachineName the name of the vm
+     * @return the snapshot names
+     * @throws VirtException if the vm doesn't exist or the hypervisor can't be queried
+     */
+    String[] lookupSnapshots(String virtualMachineName) throws VirtException {
+        Lock lock = getDomainLock(virtualMachineName);
+        lock.lock();
+        try {
+            IConnect con = getOrCreateConnection();
+            if (con == null) {
+                throw new VirtException("Cannot connect to Hypervisor " + hypervisorHost);
+            }
+            IDomain domain = con.domainLookupByName(virtualMachineName);
+            LogRecord rec = new LogRecord(Level.FINE, "Fetching snapshots for " + virtualMachineName);
             LOGGER.log(rec);
-    	}
-        return new String[0];
+            return domain.snapshotListNames();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the lock that orders the lifecycle operations on one domain: starting, shutting down and
+     * reverting it. Domains share a fixed number of locks, so a caller must not take a second domain lock
+     * while holding one.
+     *
+     * @param vmName the name of the vm
+     * @return the lock of the domain
+     */
+    public Lock getDomainLock(String vmName) {
+        return domainLocks.get(vmName);
+    }
+
+    /**
+     * Boots a domain under the {@link BootThrottle} of this host: waits for admission, starts the domain under
+     * its domain lock unless it came up in the meantime, and keeps the admission while the guest boots.
+     *
+     * @param domain     the domain to start
+     * @param vmName     the name of the vm
+     * @param bootWaitMs how long the guest is given to boot before the admission is handed on
+     * @param timer      times the boot-queue, create and boot-wait phases, may be null
+     * @return whether the domain was started, false if it was already running
+     * @throws VirtException        if the domain can't be started
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean bootDomain(IDomain domain, String vmName, long bootWaitMs, PhaseTimer timer)
+            throws VirtException, InterruptedException {
+        if (timer != null) {
+            timer.begin("boot-queue");
+        }
+        bootThrottle.acquire();
+        try {
+            if (timer != null) {
+                timer.begin("create");
+            }
+            Lock lock = getDomainLock(vmName);
+            lock.lock();
+            try {
+                if (!domain.isNotBlockedAndNotRunning()) {
+                    return false;
+                }
+                domain.create();
+            } finally {
+                lock.unlock();
+            }
+            if (timer != null) {
+                timer.begin("boot-wait");
+            }
+            if (bootWaitMs > 0) {
+                Thread.sleep(bootWaitMs);
+            }
+            return true;
+        } finally {
+            if (timer != null) {
+                timer.end();
+            }
+            bootThrottle.release();
+        }
     }
 
     public Collection<NodeProvisioner.PlannedNode> provision(Label label, int i) {
@@ -324,54 +794,186 @@ public class Hypervisor extends Cloud {
         return sb.toString();
     }
 
-    public synchronized boolean isFull(){
-        return (maxOnlineSlaves > 0) && (getCurrentOnlineSlaveCount() >= maxOnlineSlaves);
+    public boolean isFull(){
+        synchronized (capacityLock) {
+            return (maxOnlineSlaves > 0) && (getCurrentOnlineSlaveCount() + getShuttingDownCount() >= maxOnlineSlaves);
+        }
     }
 
-    public synchronized Boolean canMarkVMOnline(String slaveName, String vmName) {
-        ensureLists();
+    public Boolean canMarkVMOnline(String slaveName, String vmName) {
+        synchronized (capacityLock) {
+            ensureLists();
         
-        // Don't allow more than max.
-        if (isFull())
-            return Boolean.FALSE;
+            // Don't allow more than max.
+            if (isFull())
+                return Boolean.FALSE;
         
-        // Don't allow two slaves to the same VM to fire up.
-        if (currentOnline.containsValue(vmName))
-            return Boolean.FALSE;
+            // Don't allow two slaves to the same VM to fire up.
+            if (currentOnline.containsValue(vmName))
+                return Boolean.FALSE;
+
+            // Don't start a VM that is still on its way down.
+            if (shuttingDown.contains(vmName))
+                return Boolean.FALSE;
         
-        // Don't allow two instances of the same slave, although Jenkins will
-        // probably not encounter this.
-        if (currentOnline.containsKey(slaveName))
-            return Boolean.FALSE;
+            // Don't allow two instances of the same slave, although Jenkins will
+            // probably not encounter this.
+            if (currentOnline.containsKey(slaveName))
+                return Boolean.FALSE;
         
-        // Don't allow a misconfigured slave to try start
-        if ("".equals(vmName) || "".equals(slaveName)) {
-            LogRecord rec = new LogRecord(Level.WARNING, "Slave '"+slaveName+"' (using VM '"+vmName+"') appears to be misconfigured.");
-            LOGGER.log(rec);
-            return Boolean.FALSE;
-        }
+            // Don't allow a misconfigured slave to try start
+            if ("".equals(vmName) || "".equals(slaveName)) {
+                LogRecord rec = new LogRecord(Level.WARNING, "Slave '"+slaveName+"' (using VM '"+vmName+"') appears to be misconfigured.");
+                LOGGER.log(rec);
+                return Boolean.FALSE;
+            }
         
-        return Boolean.TRUE;
+            return Boolean.TRUE;
+        }
     }
     
-    public synchronized Boolean markVMOnline(String slaveName, String vmName) {
-        ensureLists();
+    public Boolean markVMOnline(String slaveName, String vmName) {
+        synchronized (capacityLock) {
+            ensureLists();
         
-        // If the combination is already in the list, it's good.
-        if (currentOnline.containsKey(slaveName) && currentOnline.get(slaveName).equals(vmName))
-            return Boolean.TRUE;
+            // If the combination is already in the list, it's good.
+            if (currentOnline.containsKey(slaveName) && currentOnline.get(slaveName).equals(vmName))
+                return Boolean.TRUE;
         
-        if (!canMarkVMOnline(slaveName, vmName))
-            return Boolean.FALSE;
+            if (!canMarkVMOnline(slaveName, vmName))
+                return Boolean.FALSE;
         
-        currentOnline.put(slaveName, vmName);
+            currentOnline.put(slaveName, vmName);
 
-        return Boolean.TRUE;
+            return Boolean.TRUE;
+        }
     }
 
-    public synchronized void markVMOffline(String slaveName, String vmName) throws VirtException {
-        ensureLists();
-        currentOnline.remove(slaveName);
+    /**
+     * @param slaveName the name of the slave
+     * @param vmName    the name of the vm
+     * @return whether the slave already holds a capacity slot for the vm
+     */
+    public boolean isVMOnline(String slaveName, String vmName) {
+        synchronized (capacityLock) {
+            ensureLists();
+            return vmName.equals(currentOnline.get(slaveName));
+        }
+    }
+
+    public void markVMOffline(String slaveName, String vmName) throws VirtException {
+        synchronized (capacityLock) {
+            ensureLists();
+            currentOnline.remove(slaveName);
+        }
+    }
+
+    public boolean isVMShuttingDown(String vmName) {
+        synchronized (capacityLock) {
+            ensureLists();
+            return shuttingDown.contains(vmName);
+        }
+    }
+
+    /**
+     * Returns the VMs that are running without an online slave, along with the time they were first seen.
+     *
+     * @return a copy of the leaked VMs and the time they were first seen
+     * @see OrphanDomainSweeper
+     */
+    public Map<String, Long> getLeakedDomains() {
+        synchronized (capacityLock) {
+            ensureLists();
+            return new HashMap<String, Long>(leakedSince);
+        }
+    }
+
+    /**
+     * Replaces the set of leaked VMs, keeping the time a VM was first seen if it was already known.
+     *
+     * @param leaked the VMs that are currently leaked
+     */
+    void updateLeakedDomains(Set<String> leaked) {
+        synchronized (capacityLock) {
+            ensureLists();
+            leakedSince.keySet().retainAll(leaked);
+            long now = System.currentTimeMillis();
+            for (String vmName : leaked) {
+                if (!leakedSince.containsKey(vmName)) {
+                    leakedSince.put(vmName, now);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the VMs that are shutting down
+     */
+    Set<String> getShuttingDownVMs() {
+        synchronized (capacityLock) {
+            ensureLists();
+            return new HashSet<String>(shuttingDown);
+        }
+    }
+
+    /**
+     * Keeps the capacity slot of a VM reserved while it is shutting down.
+     *
+     * @param vmName the name of the vm
+     * @see ShutdownController
+     */
+    public void markVMShuttingDown(String vmName) {
+        synchronized (capacityLock) {
+            ensureLists();
+            shuttingDown.add(vmName);
+        }
+    }
+
+    /**
+     * Releases the capacity slot held by a VM that has reached the shut-off state.
+     *
+     * @param vmName the name of the vm
+     */
+    public void markVMShutOff(String vmName) {
+        synchronized (capacityLock) {
+            ensureLists();
+            shuttingDown.remove(vmName);
+        }
+    }
+
+    /**
+     * Starts the given domains that are not running yet.
+     *
+     * @param vmNames the names of the domains
+     * @return one result per domain
+     * @throws VirtException        if the domains can't be listed
+     * @throws InterruptedException if interrupted while waiting for the operations
+     * @see DomainBatch
+     */
+    public List<DomainBatch.Result> startDomains(Collection<String> vmNames) throws VirtException, InterruptedException {
+        return new DomainBatch(this, DomainBatch.Action.START, null).run(vmNames);
+    }
+
+    /**
+     * Gracefully shuts down the given domains, holding their capacity until they are off.
+     */
+    public List<DomainBatch.Result> shutdownDomains(Collection<String> vmNames) throws VirtException, InterruptedException {
+        return new DomainBatch(this, DomainBatch.Action.SHUTDOWN, null).run(vmNames);
+    }
+
+    public List<DomainBatch.Result> destroyDomains(Collection<String> vmNames) throws VirtException, InterruptedException {
+        return new DomainBatch(this, DomainBatch.Action.DESTROY, null).run(vmNames);
+    }
+
+    public List<DomainBatch.Result> revertDomains(Collection<String> vmNames, String snapshotName) throws VirtException, InterruptedException {
+        return new DomainBatch(this, DomainBatch.Action.REVERT, snapshotName).run(vmNames);
+    }
+
+    /**
+     * Bounds the number of batch operations running on this host at the same time.
+     */
+    Semaphore getBatchPermits() {
+        return batchPermits;
     }
 
     @Override
@@ -397,14 +999,47 @@ public class Hypervisor extends Cloud {
         );
     }
 
+    /**
+     * Looks up a configured hypervisor through the registry of the {@link DescriptorImpl}.
+     *
+     * @param hypervisorDescription the description, as returned by {@link #getHypervisorDescription()}
+     * @return the hypervisor, or null if none has that description
+     */
+    public static Hypervisor findByDescription(String hypervisorDescription) {
+        if (hypervisorDescription == null) {
+            return null;
+        }
+        return ((DescriptorImpl) Jenkins.getInstance().getDescriptorOrDie(Hypervisor.class)).getHypervisor(hypervisorDescription);
+    }
+
+    /**
+     * @return the libvirt URI of this hypervisor, built once since it only depends on the configuration
+     */
     public String getHypervisorURI() {
-        return createBuilder().constructHypervisorURI();
+        if (hypervisorUri == null) {
+            hypervisorUri = ConnectionBuilder.newBuilder()
+                    .hypervisorType(hypervisorType)
+                    .userName(username)
+                    .hypervisorHost(hypervisorHost)
+                    .hypervisorPort(hypervisorSshPort)
+                    .hypervisorSysUrl(hypervisorSystemUrl)
+                    .useNativeJava(useNativeJavaConnection)
+                    .constructHypervisorURI();
+        }
+        return hypervisorUri;
     }
 
     @Extension
     public static final class DescriptorImpl extends Descriptor<Cloud> {
 
-        public final ConcurrentMap<String, Hypervisor> hypervisors = new ConcurrentHashMap<String, Hypervisor>();
+        /**
+         * The configured hypervisors by description. Rebuilt whenever the Jenkins configuration is saved.
+         */
+        private final transient ConcurrentMap<String, Hypervisor> hypervisors = new ConcurrentHashMap<String, Hypervisor>();
+        /**
+         * The clouds the registry was last built from.
+         */
+        private transient volatile List<Cloud> builtFrom = Collections.emptyList();
         private String hypervisorType;
         private String hypervisorHost;
         private String hypervisorSystemUrl;
@@ -415,6 +1050,50 @@ public class Hypervisor extends Cloud {
             return "Hypervisor (via libvirt)";
         }
 
+        /**
+         * @param hypervisorDescription the description of the hypervisor
+         * @return the hypervisor, or null if none has that description
+         */
+        public Hypervisor getHypervisor(String hypervisorDescription) {
+            Hypervisor hypervisor = hypervisors.get(hypervisorDescription);
+            // clouds added without saving the configuration, e.g. from a script; a slave whose hypervisor is
+            // gone misses on every lookup, so only rebuild if the clouds actually changed
+            if (hypervisor == null && !builtFrom.equals(Jenkins.getInstance().clouds.toList())) {
+                rebuildRegistry();
+                hypervisor = hypervisors.get(hypervisorDescription);
+            }
+            return hypervisor;
+        }
+
+        /**
+         * Rebuilds the registry from the configured clouds, and drops the VM handles no slave refers to anymore.
+         */
+        public void rebuildRegistry() {
+            Map<String, Hypervisor> current = new HashMap<String, Hypervisor>();
+            Map<String, Set<String>> vmNames = new HashMap<String, Set<String>>();
+            List<Cloud> clouds = Jenkins.getInstance().clouds.toList();
+            for (Cloud cloud : clouds) {
+                if (cloud instanceof Hypervisor) {
+                    current.put(((Hypervisor) cloud).getHypervisorDescription(), (Hypervisor) cloud);
+                    vmNames.put(((Hypervisor) cloud).getHypervisorDescription(), new HashSet<String>());
+                }
+            }
+            for (Node node : Jenkins.getInstance().getNodes()) {
+                if (node instanceof VirtualMachineSlave) {
+                    Set<String> names = vmNames.get(((VirtualMachineSlave) node).getHypervisorDescription());
+                    if (names != null) {
+                        names.add(((VirtualMachineSlave) node).getVirtualMachineName());
+                    }
+                }
+            }
+            for (Hypervisor hypervisor : current.values()) {
+                hypervisor.virtualMachines.keySet().retainAll(vmNames.get(hypervisor.getHypervisorDescription()));
+            }
+            hypervisors.putAll(current);
+            hypervisors.keySet().retainAll(current.keySet());
+            builtFrom = clouds;
+        }
+
         @Override
         public boolean configure(StaplerRequest req, JSONObject o) throws FormException {
             hypervisorType = o.getString("hypervisorType");
@@ -426,6 +1105,15 @@ public class Hypervisor extends Cloud {
             return super.configure(req, o);
         }
 
+        public FormValidation doCheckOperationTimeouts(@QueryParameter String value) {
+            try {
+                CallTimeouts.parseOverrides(value);
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
         public ListBoxModel doFillCredentialsIdItems(@AncestorInPath ItemGroup context) {
 
             return new SSHUserListBoxModel().withMatching(SSHAuthenticator.matcher(Connection.class),
@@ -436,7 +1124,8 @@ public class Hypervisor extends Cloud {
         public FormValidation doTestConnection(
                 @QueryParameter String hypervisorType, @QueryParameter String hypervisorHost, @QueryParameter String hypervisorSshPort,
                 @QueryParameter String username, @QueryParameter String hypervisorSystemUrl,
-                @QueryParameter boolean useNativeJavaConnection, @QueryParameter String credentialsId) throws Exception, ServletException {
+                @QueryParameter boolean useNativeJavaConnection, @QueryParameter String credentialsId,
+                @QueryParameter int callTimeoutSeconds) throws Exception, ServletException {
             try {
                 if (hypervisorHost == null) {
                     return FormValidation.error("Hypervisor Host is not specified!");
@@ -463,7 +1152,9 @@ public class Hypervisor extends Cloud {
                 rec.setParameters(new Object[]{hypervisorUri});
                 LOGGER.log(rec);
                 
-                IConnect hypervisorConnection = builder.build();
+                int seconds = callTimeoutSeconds == 0 ? CallTimeouts.DEFAULT_SECONDS : callTimeoutSeconds;
+                IConnect hypervisorConnection = InstrumentedConnectImpl.connect(builder, hypervisorType + " - " + hypervisorHost,
+                        new CallTimeouts(seconds, Collections.<String, Integer>emptyMap()));
                 long version = hypervisorConnection.getVersion();
                 hypervisorConnection.close();
                 return FormValidation.ok("OK: " + hypervisorUri + ", version=" + version);
@@ -516,5 +1207,12 @@ public class Hypervisor extends Cloud {
             types.add("BHYVE");
             return types;
         }
+
+        public List<String> getOrphanPolicies() {
+            List<String> policies = new ArrayList<String>();
+            policies.add("keep");
+            policies.add("shutdown");
+            return policies;
+        }
     }
 }
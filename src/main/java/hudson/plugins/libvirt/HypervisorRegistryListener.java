@@ -0,0 +1,35 @@
+package hudson.plugins.libvirt;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.Jenkins;
+
+/**
+ * Keeps the hypervisor registry of {@link Hypervisor.DescriptorImpl} in line with the configured clouds.
+ * Clouds are replaced with new instances whenever the Jenkins configuration is saved.
+ * Also drops the credentials the hypervisors have resolved when the system credentials change.
+ */
+@Extension
+public class HypervisorRegistryListener extends SaveableListener {
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+        if (o instanceof Jenkins) {
+            rebuild();
+        } else if (o instanceof SystemCredentialsProvider) {
+            for (Hypervisor hypervisor : PluginImpl.getInstance().getServers()) {
+                hypervisor.invalidateCredentials();
+            }
+        }
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void rebuild() {
+        ((Hypervisor.DescriptorImpl) Jenkins.getInstance().getDescriptorOrDie(Hypervisor.class)).rebuildRegistry();
+    }
+}
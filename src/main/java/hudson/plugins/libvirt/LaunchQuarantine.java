@@ -0,0 +1,167 @@
+package hudson.plugins.libvirt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps VMs that fail to launch from being launched again right away.
+ * <p>
+ * A VM with a broken image fails every launch, and each attempt costs the launcher its full retry loop and a
+ * capacity slot of the {@link Hypervisor}. After a failed launch the VM is held back for a cool-off that
+ * doubles with every consecutive failure; after {@link #QUARANTINE_AFTER} failures in a row it is quarantined
+ * until someone releases it from the management page. A successful launch clears the record.
+ */
+public class LaunchQuarantine {
+
+    private static final Logger LOGGER = Logger.getLogger(LaunchQuarantine.class.getName());
+
+    /**
+     * The number of consecutive failed launches after which a VM is quarantined, 0 to never quarantine.
+     */
+    public static final int QUARANTINE_AFTER = Integer.getInteger(LaunchQuarantine.class.getName() + ".quarantineAfter", 5);
+
+    public static final int COOL_OFF_SECONDS = Integer.getInteger(LaunchQuarantine.class.getName() + ".coolOffSeconds", 60);
+
+    public static final int MAX_COOL_OFF_SECONDS = Integer.getInteger(LaunchQuarantine.class.getName() + ".maxCoolOffSeconds", 1800);
+
+    /**
+     * The launch history of one VM since its last successful launch.
+     */
+    public static final class Entry {
+        private final String vmName;
+        private int failures;
+        private long lastFailure;
+        private long coolOffUntil;
+        private boolean quarantined;
+        private String reason;
+
+        Entry(String vmName) {
+            this.vmName = vmName;
+        }
+
+        public String getVmName() {
+            return vmName;
+        }
+
+        /**
+         * @return the number of launches that failed in a row
+         */
+        public int getFailures() {
+            return failures;
+        }
+
+        public long getLastFailure() {
+            return lastFailure;
+        }
+
+        /**
+         * @return when the VM may be launched again, unless it is quarantined
+         */
+        public long getCoolOffUntil() {
+            return coolOffUntil;
+        }
+
+        public boolean isQuarantined() {
+            return quarantined;
+        }
+
+        /**
+         * @return why the last launch failed
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        boolean isBlocked(long now) {
+            return quarantined || now < coolOffUntil;
+        }
+
+        Entry copy() {
+            Entry copy = new Entry(vmName);
+            copy.failures = failures;
+            copy.lastFailure = lastFailure;
+            copy.coolOffUntil = coolOffUntil;
+            copy.quarantined = quarantined;
+            copy.reason = reason;
+            return copy;
+        }
+    }
+
+    private final String hypervisorDescription;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    public LaunchQuarantine(String hypervisorDescription) {
+        this.hypervisorDescription = hypervisorDescription;
+    }
+
+    /**
+     * @param vmName the name of the vm
+     * @return whether the VM is cooling off or quarantined and must not be launched now
+     */
+    public synchronized boolean isBlocked(String vmName) {
+        Entry entry = entries.get(vmName);
+        return entry != null && entry.isBlocked(System.currentTimeMillis());
+    }
+
+    public synchronized void recordSuccess(String vmName) {
+        entries.remove(vmName);
+    }
+
+    /**
+     * @param vmName the name of the vm
+     * @param reason why the launch failed, shown on the management page
+     */
+    public synchronized void recordFailure(String vmName, String reason) {
+        Entry entry = entries.get(vmName);
+        if (entry == null) {
+            entry = new Entry(vmName);
+            entries.put(vmName, entry);
+        }
+        long now = System.currentTimeMillis();
+        entry.failures++;
+        entry.lastFailure = now;
+        entry.reason = reason;
+        if (QUARANTINE_AFTER > 0 && entry.failures >= QUARANTINE_AFTER) {
+            if (!entry.quarantined) {
+                LOGGER.log(Level.WARNING, "Quarantining {0} on {1} after {2} failed launches in a row: {3}",
+                        new Object[]{vmName, hypervisorDescription, entry.failures, reason});
+            }
+            entry.quarantined = true;
+            return;
+        }
+        long coolOffSeconds = Math.min((long) COOL_OFF_SECONDS << Math.min(entry.failures - 1, 20), MAX_COOL_OFF_SECONDS);
+        entry.coolOffUntil = now + coolOffSeconds * 1000L;
+    }
+
+    /**
+     * Lets a quarantined or cooling off VM be launched again right away.
+     *
+     * @param vmName the name of the vm
+     * @return whether the VM was held back
+     */
+    public synchronized boolean release(String vmName) {
+        return entries.remove(vmName) != null;
+    }
+
+    /**
+     * @return the VMs with failed launches, most failures first
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> copies = new ArrayList<Entry>();
+        for (Entry entry : entries.values()) {
+            copies.add(entry.copy());
+        }
+        Collections.sort(copies, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return b.failures - a.failures;
+            }
+        });
+        return copies;
+    }
+}
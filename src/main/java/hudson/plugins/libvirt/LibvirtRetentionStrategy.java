@@ -25,17 +25,27 @@ import java.util.Collections;
 public class LibvirtRetentionStrategy extends RetentionStrategy<VirtualMachineSlaveComputer> {
     private static final Logger LOGGER = Logger.getLogger(Demand.class.getName());
     private final long maxIdleTime;
+    private final boolean hedgedLaunches;
+    private final boolean predictivePreBoot;
 
-    @DataBoundConstructor
     public LibvirtRetentionStrategy(long maxIdleTime){
+        this(maxIdleTime, false, false);
+    }
+
+    @DataBoundConstructor
+    public LibvirtRetentionStrategy(long maxIdleTime, boolean hedgedLaunches, boolean predictivePreBoot){
         LOGGER.info("Libvirt RetentionStrategy constructed");
         this.maxIdleTime = maxIdleTime;
+        this.hedgedLaunches = hedgedLaunches;
+        this.predictivePreBoot = predictivePreBoot;
     }
 
     @Override
     public boolean isManualLaunchAllowed(VirtualMachineSlaveComputer vm){
         VirtualMachineLauncher vML = (VirtualMachineLauncher) vm.getLauncher();
-        return !vML.getHypervisor().isFull();
+        Hypervisor hypervisor = vML.getHypervisor();
+        return hypervisor.isAvailable() && !hypervisor.isFull()
+                && !hypervisor.getLaunchQuarantine().isBlocked(vML.getVirtualMachineName());
     }
 
     @Override
@@ -43,7 +53,20 @@ public class LibvirtRetentionStrategy extends RetentionStrategy<VirtualMachineSl
     public long check(final VirtualMachineSlaveComputer vm) {
         VirtualMachineLauncher vmL = (VirtualMachineLauncher) vm.getLauncher();
         Hypervisor hypervisor = vmL.getHypervisor();
-        if (vm.isOffline() && hasUniqueJob(vm)){
+        // while the host is down, leave the demand to the slaves of other hypervisors
+        if (!hypervisor.isAvailable()) {
+            return 1;
+        }
+        // a VM that keeps failing to launch leaves the demand to the other VMs
+        if (hypervisor.getLaunchQuarantine().isBlocked(vmL.getVirtualMachineName())) {
+            return 1;
+        }
+        Queue.BuildableItem uniqueJob = vm.isOffline() ? findUniqueJob(vm) : null;
+        if (uniqueJob != null){
+            // the slave that last ran the job still has its workspace, let that one boot instead
+            if (WorkspaceAffinityLoadBalancer.prefersOther(uniqueJob, vm)) {
+                return 1;
+            }
             if (hypervisor.isFull()){
                 VirtualMachineSlaveComputer slacker = getIdleVM();
                 if (slacker != null) {
@@ -53,6 +76,9 @@ public class LibvirtRetentionStrategy extends RetentionStrategy<VirtualMachineSl
                 LOGGER.log(Level.INFO, "CHECKING " + vm.getDisplayName() + " Hyper is Full, everyone is busy");
             } else {
                 vm.connect(false);
+                if (hedgedLaunches) {
+                    HedgedLaunches.launched(vm);
+                }
             }
         }
         return 1;
@@ -71,10 +97,18 @@ public class LibvirtRetentionStrategy extends RetentionStrategy<VirtualMachineSl
         return null;
     }
 
-    private boolean hasUniqueJob(final SlaveComputer c) {
+    boolean hasUniqueJob(final SlaveComputer c) {
+        return findUniqueJob(c) != null;
+    }
+
+    /**
+     * @param c the slave
+     * @return a buildable item that the slave can take and no idle executor elsewhere will, or null if there is none
+     */
+    Queue.BuildableItem findUniqueJob(final SlaveComputer c) {
         Node node = c.getNode();
         if (node == null){
-            return false;
+            return null;
         }
         final HashMap<Computer, Integer> availableComputers = new HashMap<Computer, Integer>();
         for (Computer o : Jenkins.getInstance().getComputers()) {
@@ -102,16 +136,32 @@ public class LibvirtRetentionStrategy extends RetentionStrategy<VirtualMachineSl
                 }
             }
             if (needExecutor && node.canTake(item) == null) {
-                return true;
+                return item;
             }
         }
-        return false;
+        return null;
     }
 
     public long getMaxIdleTime() {
         return maxIdleTime;
     }
 
+    /**
+     * @return whether a spare VM is started when a launch takes longer than usual
+     * @see HedgedLaunches
+     */
+    public boolean isHedgedLaunches() {
+        return hedgedLaunches;
+    }
+
+    /**
+     * @return whether the slave is booted ahead of the queue demand forecast for its labels
+     * @see PreBootWork
+     */
+    public boolean isPredictivePreBoot() {
+        return predictivePreBoot;
+    }
+
     @Extension
     public static class DescriptorImpl extends Descriptor<RetentionStrategy<?>> {
         @Override
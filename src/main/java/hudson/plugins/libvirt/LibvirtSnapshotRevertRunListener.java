@@ -6,11 +6,13 @@ import hudson.model.listeners.RunListener;
 import hudson.plugins.libvirt.lib.IDomain;
 import hudson.plugins.libvirt.lib.IDomainSnapshot;
 import hudson.plugins.libvirt.lib.VirtException;
+import hudson.plugins.libvirt.metrics.PhaseTimer;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.OfflineCause;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 import org.libvirt.Domain;
 import org.libvirt.DomainSnapshot;
@@ -66,12 +68,15 @@ public class LibvirtSnapshotRevertRunListener extends RunListener<Run<?, ?>> {
 
             VirtualMachineLauncher slaveLauncher = (VirtualMachineLauncher) launcher;
             Hypervisor hypervisor = slaveLauncher.getHypervisor();
+            PhaseTimer timer = new PhaseTimer(hypervisor.getHypervisorDescription(), slaveLauncher.getVirtualMachineName());
 
             try {
+                timer.begin("lookup");
                 Map<String, IDomain> domains = hypervisor.getDomains();
 
                 String vmName = slaveLauncher.getVirtualMachineName();
                 IDomain domain = domains.get(vmName);
+                timer.end();
                 if (domain != null) {
                     listener.getLogger().println("Preparing to revert " + vmName + " to snapshot " + snapshotName + ".");
 
@@ -80,6 +85,7 @@ public class LibvirtSnapshotRevertRunListener extends RunListener<Run<?, ?>> {
                         try {
                             Computer computer = slave.getComputer();
                             try {
+                                timer.begin("offline");
                                 computer.getChannel().syncLocalIO();
                                 try {
                                     computer.getChannel().close();
@@ -88,11 +94,21 @@ public class LibvirtSnapshotRevertRunListener extends RunListener<Run<?, ?>> {
                                         computer.waitUntilOffline();
 
                                         listener.getLogger().println("Reverting " + vmName + " to snapshot " + snapshotName + ".");
-                                        domain.revertToSnapshot(snapshot);
+                                        timer.begin("revert");
+                                        Lock lock = hypervisor.getDomainLock(vmName);
+                                        lock.lock();
+                                        try {
+                                            domain.revertToSnapshot(snapshot);
+                                        } finally {
+                                            lock.unlock();
+                                        }
+                                        hypervisor.getSnapshotCache().invalidate(vmName);
 
                                         listener.getLogger().println("Relaunching " + vmName + ".");
                                         try {
+                                            timer.begin("relaunch");
                                             launcher.launch(slave.getComputer(), listener);
+                                            timer.finish("snapshot-revert", listener);
                                         } catch (IOException e) {
                                             listener.fatalError("Could not relaunch VM: " + e);
                                         } catch (InterruptedException e) {
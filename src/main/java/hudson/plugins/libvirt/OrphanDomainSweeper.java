@@ -0,0 +1,156 @@
+package hudson.plugins.libvirt;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.VirtException;
+import jenkins.model.Jenkins;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Periodically cross-references the running domains of every {@link Hypervisor} with the online
+ * {@link VirtualMachineSlaveComputer}s.
+ * <p>
+ * A domain of a libvirt slave that runs while the slave is offline (a failed launch, a killed
+ * connection, a manual start) is a leak. Leaks are counted against the capacity and reported on the
+ * hypervisor; with the <code>shutdown</code> orphan policy they are shut down once the grace period
+ * has passed. Capacity held for slaves whose domain is no longer running is released, including the slot of a
+ * VM whose shutdown was not followed up to the end, e.g. because the controller waiting for it died.
+ */
+@Extension
+public class OrphanDomainSweeper extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(OrphanDomainSweeper.class.getName());
+
+    public static final int DEFAULT_GRACE_PERIOD_MINUTES = 10;
+
+    public OrphanDomainSweeper() {
+        super("Libvirt orphan domain sweeper");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        for (Hypervisor hypervisor : PluginImpl.getInstance().getServers()) {
+            sweep(hypervisor, listener);
+        }
+    }
+
+    private void sweep(Hypervisor hypervisor, TaskListener listener) {
+        Set<String> running;
+        try {
+            running = new HashSet<String>(hypervisor.getRunningDomainNames());
+        } catch (VirtException e) {
+            LogRecord rec = new LogRecord(Level.WARNING, "Failed to list the running domains of {0}, skipping.");
+            rec.setParameters(new Object[]{hypervisor.getHypervisorDescription()});
+            rec.setThrown(e);
+            LOGGER.log(rec);
+            return;
+        }
+
+        Map<String, VirtualMachineSlave> leaked = new HashMap<String, VirtualMachineSlave>();
+        Set<String> attached = new HashSet<String>();
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            if (!(node instanceof VirtualMachineSlave)) {
+                continue;
+            }
+            VirtualMachineSlave slave = (VirtualMachineSlave) node;
+            if (!hypervisor.getHypervisorDescription().equals(slave.getHypervisorDescription())) {
+                continue;
+            }
+            String vmName = slave.getVirtualMachineName();
+            Computer computer = slave.toComputer();
+            if (computer != null && (computer.isOnline() || computer.isConnecting())) {
+                attached.add(vmName);
+                continue;
+            }
+            if (running.contains(vmName) && !hypervisor.isVMShuttingDown(vmName)) {
+                if (!leaked.containsKey(vmName)) {
+                    leaked.put(vmName, slave);
+                }
+            } else {
+                try {
+                    hypervisor.markVMOffline(slave.getNodeName(), vmName);
+                } catch (VirtException e) {
+                    // only accounting, nothing to report
+                }
+            }
+        }
+
+        releaseShutOff(hypervisor, running);
+
+        leaked.keySet().removeAll(attached);
+        hypervisor.updateLeakedDomains(leaked.keySet());
+        if (leaked.isEmpty()) {
+            return;
+        }
+
+        int graceMinutes = hypervisor.getOrphanGracePeriodMinutes() <= 0
+                ? DEFAULT_GRACE_PERIOD_MINUTES : hypervisor.getOrphanGracePeriodMinutes();
+        long shutdownBefore = System.currentTimeMillis() - graceMinutes * MIN;
+        Map<String, Long> leakedSince = hypervisor.getLeakedDomains();
+        for (Map.Entry<String, VirtualMachineSlave> entry : leaked.entrySet()) {
+            String vmName = entry.getKey();
+            VirtualMachineSlave slave = entry.getValue();
+            if (hypervisor.getOrphanPolicy().equals("shutdown") && leakedSince.get(vmName) < shutdownBefore) {
+                listener.getLogger().println("Shutting down leaked domain " + vmName + " on " + hypervisor.getHypervisorDescription());
+                IDomain domain = hypervisor.getDomainByName(vmName);
+                if (domain == null) {
+                    continue;
+                }
+                try {
+                    new ShutdownController(hypervisor, vmName, slave.getShutdownMethod(), slave.getShutdownTimeoutSeconds())
+                            .shutdown(domain, listener);
+                    hypervisor.markVMOffline(slave.getNodeName(), vmName);
+                } catch (VirtException e) {
+                    LogRecord rec = new LogRecord(Level.WARNING, "Failed to shut down leaked domain {0} on {1}.");
+                    rec.setParameters(new Object[]{vmName, hypervisor.getHypervisorDescription()});
+                    rec.setThrown(e);
+                    LOGGER.log(rec);
+                }
+            } else {
+                // the domain uses resources on the host, so it counts against the capacity
+                hypervisor.markVMOnline(slave.getNodeName(), vmName);
+            }
+        }
+        LOGGER.log(Level.INFO, "{0} leaked domain(s) on {1}: {2}",
+                new Object[]{leaked.size(), hypervisor.getHypervisorDescription(), leaked.keySet()});
+    }
+
+    /**
+     * Releases the slots of the VMs marked as shutting down whose domain is confirmed shut off or gone.
+     */
+    private void releaseShutOff(Hypervisor hypervisor, Set<String> running) {
+        for (String vmName : hypervisor.getShuttingDownVMs()) {
+            if (running.contains(vmName)) {
+                continue;
+            }
+            try {
+                IDomain domain = hypervisor.findDomain(vmName);
+                if (domain == null ? hypervisor.getDomains().containsKey(vmName) : !domain.isShutOff()) {
+                    // still up, or the lookup failed
+                    continue;
+                }
+            } catch (VirtException e) {
+                continue;
+            }
+            LOGGER.log(Level.INFO, "{0} on {1} is down, releasing the slot held for its shutdown",
+                    new Object[]{vmName, hypervisor.getHypervisorDescription()});
+            hypervisor.markVMShutOff(vmName);
+        }
+    }
+}
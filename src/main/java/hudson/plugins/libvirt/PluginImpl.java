@@ -139,14 +139,9 @@ public class PluginImpl extends Plugin {
     public void doComputerNameValues(StaplerRequest req, StaplerResponse rsp, @QueryParameter("value") String value) throws IOException, ServletException {
         ListBoxModel m = new ListBoxModel();
         List<VirtualMachine> virtualMachines = null;
-        for (Cloud cloud : Jenkins.getInstance().clouds) {
-            if (cloud instanceof Hypervisor) {
-                Hypervisor hypervisor = (Hypervisor) cloud;
-                if (value != null && value.equals(hypervisor.getHypervisorDescription())) {
-                    virtualMachines = hypervisor.getVirtualMachines();
-                    break;
-                }
-            }
+        Hypervisor hypervisor = Hypervisor.findByDescription(value);
+        if (hypervisor != null) {
+            virtualMachines = hypervisor.getVirtualMachines();
         }
         if (virtualMachines != null) {
             for (VirtualMachine vm : virtualMachines) {
@@ -0,0 +1,93 @@
+package hudson.plugins.libvirt;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Boots libvirt slaves ahead of the demand the {@link DemandForecast} expects, so builds arriving at a
+ * predictable peak find them online instead of waiting for the boot.
+ * <p>
+ * Once a minute the forecast for {@link #LEAD_MINUTES} ahead is compared, per label, with the slaves of that
+ * label that are idle or already booting. The missing ones are started among the offline slaves whose
+ * {@link LibvirtRetentionStrategy} has predictive pre-boot enabled and whose hypervisor lets them launch.
+ */
+@Extension
+public class PreBootWork extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(PreBootWork.class.getName());
+
+    /**
+     * How far ahead of the expected arrivals the slaves are booted.
+     */
+    public static final int LEAD_MINUTES = Integer.getInteger(PreBootWork.class.getName() + ".leadMinutes", 10);
+
+    public PreBootWork() {
+        super("Libvirt predictive pre-boot");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        DemandForecast forecast = DemandForecast.get();
+        long now = System.currentTimeMillis();
+        forecast.roll(now);
+
+        long ahead = now + LEAD_MINUTES * MIN;
+        for (DemandForecast.LabelDemand demand : forecast.getLabels()) {
+            int wanted = (int) Math.round(forecast.getExpected(demand.getLabel(), ahead));
+            if (wanted <= 0) {
+                continue;
+            }
+            Label label = Jenkins.getInstance().getLabel(demand.getLabel());
+            if (label == null) {
+                continue;
+            }
+            int ready = 0;
+            List<VirtualMachineSlaveComputer> candidates = new ArrayList<VirtualMachineSlaveComputer>();
+            for (Node node : label.getNodes()) {
+                if (!(node instanceof VirtualMachineSlave)) {
+                    continue;
+                }
+                Computer c = node.toComputer();
+                if (!(c instanceof VirtualMachineSlaveComputer)) {
+                    continue;
+                }
+                if (c.isConnecting() || (c.isOnline() && c.isIdle())) {
+                    ready++;
+                } else if (c.isOffline() && isPreBootEnabled(node)) {
+                    candidates.add((VirtualMachineSlaveComputer) c);
+                }
+            }
+            for (VirtualMachineSlaveComputer c : candidates) {
+                if (ready >= wanted) {
+                    break;
+                }
+                if (c.getRetentionStrategy().isManualLaunchAllowed(c)) {
+                    LOGGER.log(Level.INFO, "Pre-booting {0} for {1}, {2} builds expected in {3} minutes",
+                            new Object[]{c.getName(), demand.getLabel(), wanted, LEAD_MINUTES});
+                    c.connect(false);
+                    ready++;
+                }
+            }
+        }
+    }
+
+    private static boolean isPreBootEnabled(Node node) {
+        return node.getRetentionStrategy() instanceof LibvirtRetentionStrategy
+                && ((LibvirtRetentionStrategy) node.getRetentionStrategy()).isPredictivePreBoot();
+    }
+}
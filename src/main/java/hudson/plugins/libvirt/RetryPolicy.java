@@ -0,0 +1,93 @@
+package hudson.plugins.libvirt;
+
+import java.util.Random;
+
+/**
+ * How long the launcher waits before each attempt to connect to a freshly started VM.
+ * <p>
+ * The first attempt comes after the initial delay; every further delay is the previous one times the
+ * multiplier, capped at the maximum, and spread by a random jitter so that VMs started together don't
+ * reconnect in lockstep. Attempts stop once the retries are used up or the deadline has passed.
+ * A multiplier of 1 without jitter reproduces the fixed wait between attempts.
+ */
+public final class RetryPolicy {
+
+    private static final Random RANDOM = new Random();
+
+    private final long initialDelayMs;
+    private final double multiplier;
+    private final long maxDelayMs;
+    private final double jitter;
+    private final long deadlineMs;
+
+    /**
+     * @param initialDelayMs the wait before the first attempt
+     * @param multiplier     the growth of the wait per attempt, values below 1 are taken as 1
+     * @param maxDelayMs     the longest wait between two attempts, 0 or less for no cap
+     * @param jitter         the fraction by which a wait is randomly shortened or lengthened, 0 to 1
+     * @param deadlineMs     the time after which no further attempt is made, 0 or less for none
+     */
+    public RetryPolicy(long initialDelayMs, double multiplier, long maxDelayMs, double jitter, long deadlineMs) {
+        this.initialDelayMs = Math.max(0, initialDelayMs);
+        this.multiplier = Math.max(1, multiplier);
+        this.maxDelayMs = maxDelayMs;
+        this.jitter = Math.max(0, Math.min(1, jitter));
+        this.deadlineMs = deadlineMs;
+    }
+
+    /**
+     * @param delayMs the wait before every attempt
+     * @return a policy that waits the same time before every attempt, without a deadline
+     */
+    public static RetryPolicy fixed(long delayMs) {
+        return new RetryPolicy(delayMs, 1, 0, 0, 0);
+    }
+
+    /**
+     * @param attempt the attempt about to be made, starting at 0
+     * @return how long to wait before it
+     */
+    public long getDelayMs(int attempt) {
+        double delay = initialDelayMs * Math.pow(multiplier, attempt);
+        if (maxDelayMs > 0) {
+            delay = Math.min(delay, maxDelayMs);
+        }
+        if (jitter > 0) {
+            double factor;
+            synchronized (RANDOM) {
+                factor = 1 + jitter * (2 * RANDOM.nextDouble() - 1);
+            }
+            delay *= factor;
+        }
+        return (long) delay;
+    }
+
+    /**
+     * @param startedAt when the first attempt was scheduled
+     * @param delayMs   the wait before the next attempt
+     * @return whether the next attempt would still start before the deadline
+     */
+    public boolean isWithinDeadline(long startedAt, long delayMs) {
+        return deadlineMs <= 0 || System.currentTimeMillis() + delayMs - startedAt <= deadlineMs;
+    }
+
+    public long getInitialDelayMs() {
+        return initialDelayMs;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+}
@@ -0,0 +1,219 @@
+package hudson.plugins.libvirt;
+
+import com.google.common.util.concurrent.Futures;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.VirtException;
+import hudson.plugins.libvirt.metrics.LaunchMetrics;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Shuts a domain down using the method configured on its slave.
+ * <p>
+ * A graceful shutdown only asks the guest to power off, so the domain keeps using host resources until
+ * it actually reaches the shut-off state. The controller keeps the capacity slot reserved on the
+ * {@link Hypervisor} until then, and destroys the domain once the deadline has passed. The time until the
+ * domain is actually down is recorded as the <code>shutdown</code> phase in {@link LaunchMetrics}.
+ */
+public class ShutdownController {
+
+    private static final Logger LOGGER = Logger.getLogger(ShutdownController.class.getName());
+
+    public static final int DEFAULT_TIMEOUT_SECS = 120;
+
+    private static final long POLL_INTERVAL_MS = 2000;
+
+    private static final long RETRY_INTERVAL_MS = 30000;
+
+    private final Hypervisor hypervisor;
+    private final String vmName;
+    private final String method;
+    private final int timeoutSecs;
+
+    public ShutdownController(Hypervisor hypervisor, String vmName, String method, int timeoutSecs) {
+        this.hypervisor = hypervisor;
+        this.vmName = vmName;
+        this.method = method == null ? "shutdown" : method;
+        this.timeoutSecs = timeoutSecs <= 0 ? DEFAULT_TIMEOUT_SECS : timeoutSecs;
+    }
+
+    /**
+     * Issues the shutdown. Suspend and destroy take effect right away, a graceful shutdown or a managed
+     * save is followed up in the background.
+     *
+     * @param domain   the domain to shut down
+     * @param listener where to report progress
+     * @return a future that completes once the domain is down
+     * @throws VirtException if the shutdown could not be issued
+     */
+    public Future<?> shutdown(final IDomain domain, final TaskListener listener) throws VirtException {
+        Lock lock = hypervisor.getDomainLock(vmName);
+        lock.lock();
+        try {
+            return issue(domain, listener);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Future<?> issue(final IDomain domain, final TaskListener listener) throws VirtException {
+        final long started = System.currentTimeMillis();
+        if (method.equals("suspend")) {
+            domain.suspend();
+            recordDown(started);
+            return Futures.immediateFuture(null);
+        }
+        if (method.equals("destroy")) {
+            domain.destroy();
+            recordDown(started);
+            return Futures.immediateFuture(null);
+        }
+
+        hypervisor.markVMShuttingDown(vmName);
+        if (method.equals("managedsave")) {
+            return Computer.threadPoolForRemoting.submit(new Runnable() {
+                public void run() {
+                    managedSave(domain, listener, started);
+                }
+            });
+        }
+        try {
+            domain.shutdown();
+        } catch (VirtException e) {
+            hypervisor.markVMShutOff(vmName);
+            throw e;
+        }
+        return Computer.threadPoolForRemoting.submit(new Runnable() {
+            public void run() {
+                awaitShutOff(domain, listener, started);
+            }
+        });
+    }
+
+    /**
+     * Saves the memory of the domain to disk and stops it; the next start restores from that image.
+     * Falls back to a graceful shutdown if the hypervisor can't do a managed save.
+     */
+    private void managedSave(IDomain domain, TaskListener listener, long started) {
+        Lock lock = hypervisor.getDomainLock(vmName);
+        lock.lock();
+        try {
+            domain.managedSave();
+            listener.getLogger().println("\"" + vmName + "\" saved to disk and stopped.");
+            recordDown(started);
+            hypervisor.markVMShutOff(vmName);
+            return;
+        } catch (VirtException e) {
+            listener.getLogger().println("Managed save of \"" + vmName + "\" failed, shutting down instead: " + e.getMessage());
+            LogRecord rec = new LogRecord(Level.WARNING, "Managed save of {0} on Hypervisor {1} failed, shutting down instead.");
+            rec.setParameters(new Object[]{vmName, hypervisor.getHypervisorDescription()});
+            rec.setThrown(e);
+            LOGGER.log(rec);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            domain = resolve(domain);
+            if (domain == null) {
+                hypervisor.markVMShutOff(vmName);
+                return;
+            }
+            domain.shutdown();
+        } catch (VirtException e) {
+            // destroyed once the deadline has passed, unless it went down anyway
+            LogRecord rec = new LogRecord(Level.SEVERE, "Error while shutting down {0} on Hypervisor {1}.");
+            rec.setParameters(new Object[]{vmName, hypervisor.getHypervisorDescription()});
+            rec.setThrown(e);
+            LOGGER.log(rec);
+        }
+        awaitShutOff(domain, listener, started);
+    }
+
+    private void recordDown(long started) {
+        LaunchMetrics.record(hypervisor.getHypervisorDescription(), vmName, "shutdown", System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Polls the domain until it is shut off, and destroys it once the deadline has passed. The capacity slot is
+     * only released once the domain is confirmed down; a failed call is retried on a domain looked up again,
+     * since the connection of the old one may have been abandoned.
+     */
+    private void awaitShutOff(IDomain domain, TaskListener listener, long started) {
+        long deadline = System.currentTimeMillis() + timeoutSecs * 1000L;
+        boolean down = false;
+        try {
+            while (true) {
+                Exception failed = null;
+                try {
+                    if (domain.isShutOff()) {
+                        listener.getLogger().println("\"" + vmName + "\" is shut off.");
+                        down = true;
+                    } else if (System.currentTimeMillis() >= deadline) {
+                        listener.getLogger().println("\"" + vmName + "\" did not shut down within " + timeoutSecs + "s, destroying it.");
+                        LOGGER.log(Level.WARNING, "Domain {0} did not shut down within {1}s, destroying it.",
+                                new Object[]{vmName, timeoutSecs});
+                        domain.destroy();
+                        down = true;
+                    }
+                } catch (VirtException e) {
+                    failed = e;
+                } catch (RuntimeException e) {
+                    failed = e;
+                }
+                if (failed != null) {
+                    LogRecord rec = new LogRecord(Level.WARNING, "Error while waiting for {0} on Hypervisor {1} to shut down, retrying.");
+                    rec.setParameters(new Object[]{vmName, hypervisor.getHypervisorDescription()});
+                    rec.setThrown(failed);
+                    LOGGER.log(rec);
+                    domain = resolve(domain);
+                    if (domain == null) {
+                        listener.getLogger().println("\"" + vmName + "\" no longer exists.");
+                        down = true;
+                    } else {
+                        Thread.sleep(RETRY_INTERVAL_MS);
+                        continue;
+                    }
+                }
+                if (down) {
+                    break;
+                }
+                Thread.sleep(POLL_INTERVAL_MS);
+            }
+            recordDown(started);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (down) {
+                hypervisor.markVMShutOff(vmName);
+            } else {
+                LOGGER.log(Level.WARNING, "{0} was not confirmed down, its slot on {1} stays reserved until the "
+                        + "orphan sweeper finds it down", new Object[]{vmName, hypervisor.getHypervisorDescription()});
+            }
+        }
+    }
+
+    /**
+     * Looks the domain up again after a call on it failed, e.g. on a connection that was abandoned.
+     *
+     * @param stale the domain the call failed on
+     * @return the domain looked up again, the stale one if it can't be looked up right now, or null if the
+     *         hypervisor no longer knows it
+     */
+    private IDomain resolve(IDomain stale) {
+        IDomain domain = hypervisor.getDomainByName(vmName);
+        if (domain != null) {
+            return domain;
+        }
+        try {
+            return hypervisor.getDomains().containsKey(vmName) ? stale : null;
+        } catch (VirtException e) {
+            return stale;
+        }
+    }
+}
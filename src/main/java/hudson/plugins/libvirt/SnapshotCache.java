@@ -0,0 +1,110 @@
+package hudson.plugins.libvirt;
+
+import hudson.model.Computer;
+import hudson.plugins.libvirt.lib.VirtException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Caches the snapshot names of the domains of one {@link Hypervisor}.
+ * <p>
+ * The node and job configuration forms ask for the snapshots of a VM on every change of a dropdown, and
+ * each lookup costs round trips to the hypervisor. Entries are prefetched in the background for all
+ * configured VMs, dropped when the plugin reverts a domain, and refreshed in the background once older
+ * than {@link #TTL_MS}; a stale list is served meanwhile, so only the very first lookup of a VM blocks.
+ * Failed lookups are not cached: the last good list stays in place, and a VM that was never loaded is
+ * looked up again on the next request.
+ */
+public class SnapshotCache {
+
+    private static final Logger LOGGER = Logger.getLogger(SnapshotCache.class.getName());
+
+    public static final long TTL_MS = Long.getLong(SnapshotCache.class.getName() + ".ttlMs", 5 * 60 * 1000L);
+
+    private static final class Entry {
+        final String[] names;
+        final long loadedAt;
+
+        Entry(String[] names, long loadedAt) {
+            this.names = names;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final Hypervisor hypervisor;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final Set<String> loading = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public SnapshotCache(Hypervisor hypervisor) {
+        this.hypervisor = hypervisor;
+    }
+
+    /**
+     * @param vmName the name of the vm
+     * @return the snapshot names of the vm, empty if it has none or can't be found
+     */
+    public String[] get(String vmName) {
+        Entry entry = entries.get(vmName);
+        if (entry == null) {
+            return load(vmName);
+        }
+        if (System.currentTimeMillis() - entry.loadedAt > TTL_MS) {
+            prefetch(Collections.singleton(vmName));
+        }
+        return entry.names.clone();
+    }
+
+    /**
+     * Loads the snapshots of the given VMs in the background.
+     *
+     * @param vmNames the names of the vms
+     */
+    public void prefetch(Collection<String> vmNames) {
+        for (final String vmName : vmNames) {
+            if (!loading.add(vmName)) {
+                continue;
+            }
+            Computer.threadPoolForRemoting.submit(new Runnable() {
+                public void run() {
+                    try {
+                        load(vmName);
+                    } finally {
+                        loading.remove(vmName);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Forgets the snapshots of a VM, e.g. because it was reverted or its snapshots changed.
+     *
+     * @param vmName the name of the vm
+     */
+    public void invalidate(String vmName) {
+        entries.remove(vmName);
+    }
+
+    private String[] load(String vmName) {
+        try {
+            String[] names = hypervisor.lookupSnapshots(vmName);
+            entries.put(vmName, new Entry(names, System.currentTimeMillis()));
+            return names.clone();
+        } catch (VirtException e) {
+            LogRecord rec = new LogRecord(Level.WARNING, "Failed to fetch snapshot ids for VM {0} at {1}.");
+            rec.setParameters(new Object[]{vmName, hypervisor.getHypervisorDescription()});
+            rec.setThrown(e);
+            LOGGER.log(rec);
+            // a failure is not cached, it would read as "no snapshots"; keep serving the last good list
+            Entry previous = entries.get(vmName);
+            return previous != null ? previous.names.clone() : new String[0];
+        }
+    }
+}
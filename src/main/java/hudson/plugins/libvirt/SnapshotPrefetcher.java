@@ -0,0 +1,54 @@
+package hudson.plugins.libvirt;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the {@link SnapshotCache} of every {@link Hypervisor} warm for the VMs of the configured
+ * {@link VirtualMachineSlave}s, so the configuration forms rarely wait for the hypervisor.
+ */
+@Extension
+public class SnapshotPrefetcher extends AsyncPeriodicWork {
+
+    public SnapshotPrefetcher() {
+        super("Libvirt snapshot prefetcher");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return Math.max(MIN, SnapshotCache.TTL_MS / 2);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        prefetchAll();
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void prefetchOnStartup() {
+        prefetchAll();
+    }
+
+    static void prefetchAll() {
+        for (Hypervisor hypervisor : PluginImpl.getInstance().getServers()) {
+            List<String> vmNames = new ArrayList<String>();
+            for (Node node : Jenkins.getInstance().getNodes()) {
+                if (node instanceof VirtualMachineSlave) {
+                    VirtualMachineSlave slave = (VirtualMachineSlave) node;
+                    if (hypervisor.getHypervisorDescription().equals(slave.getHypervisorDescription())) {
+                        vmNames.add(slave.getVirtualMachineName());
+                    }
+                }
+            }
+            hypervisor.getSnapshotCache().prefetch(vmNames);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package hudson.plugins.libvirt;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared by many keys.
+ * <p>
+ * Every key maps to one of the stripes, so operations on the same key are always ordered while operations on
+ * different keys mostly run in parallel. Two keys may share a stripe; callers must therefore never hold the
+ * lock of one key while taking the lock of another.
+ */
+public final class StripedLock {
+
+    private final ReentrantLock[] stripes;
+
+    /**
+     * @param stripes the number of locks, rounded up to a power of two
+     */
+    public StripedLock(int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param key the key, e.g. the name of a domain
+     * @return the lock that guards the key
+     */
+    public Lock get(String key) {
+        int h = key == null ? 0 : key.hashCode();
+        // spread the high bits, names of VMs often differ only in a trailing number
+        h ^= (h >>> 16);
+        h ^= (h >>> 8);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    public int size() {
+        return stripes.length;
+    }
+}
@@ -0,0 +1,40 @@
+package hudson.plugins.libvirt;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.plugins.libvirt.lib.VirtException;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Samples the resource usage of every {@link Hypervisor} and its running domains at a fixed interval.
+ */
+@Extension
+public class UtilizationSampler extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(UtilizationSampler.class.getName());
+
+    public static final int INTERVAL_SECONDS = Integer.getInteger(UtilizationSampler.class.getName() + ".intervalSeconds", 30);
+
+    public UtilizationSampler() {
+        super("Libvirt utilization sampler");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return INTERVAL_SECONDS * 1000L;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        for (Hypervisor hypervisor : PluginImpl.getInstance().getServers()) {
+            try {
+                hypervisor.getUtilization().sample();
+            } catch (VirtException e) {
+                LOGGER.log(Level.FINE, "Failed to sample the utilization of " + hypervisor.getHypervisorDescription(), e);
+            }
+        }
+    }
+}
@@ -21,12 +21,14 @@
  */
 package hudson.plugins.libvirt;
 
+import hudson.AbortException;
 import hudson.model.TaskListener;
 import hudson.model.Descriptor;
 import hudson.model.Hudson;
 import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.VirtBusyException;
 import hudson.plugins.libvirt.lib.VirtException;
-import hudson.slaves.Cloud;
+import hudson.plugins.libvirt.metrics.PhaseTimer;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.SlaveComputer;
 
@@ -35,24 +37,37 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
-import jenkins.model.Jenkins;
 
-import org.kohsuke.stapler.DataBoundConstructor;
 
 
 public class VirtualMachineLauncher extends ComputerLauncher {
 
     private static final Logger LOGGER = Logger.getLogger(VirtualMachineLauncher.class.getName());
+    private static final long ONLINE_POLL_MS = 1000;
     private ComputerLauncher delegate;
     private String hypervisorDescription;
     private String virtualMachineName;
     private String snapshotName;
     private final int WAIT_TIME_MS;
     private final int timesToRetryOnFailure;
-    
-    @DataBoundConstructor
+    private RetryPolicy retryPolicy;
+
+    /**
+     * @deprecated use {@link #VirtualMachineLauncher(ComputerLauncher, String, String, String, int, int, RetryPolicy)}
+     */
+    @Deprecated
     public VirtualMachineLauncher(ComputerLauncher delegate, String hypervisorDescription, String virtualMachineName, String snapshotName,
             int waitingTimeSecs, int timesToRetryOnFailure) {
+        this(delegate, hypervisorDescription, virtualMachineName, snapshotName, waitingTimeSecs, timesToRetryOnFailure, null);
+    }
+
+    /**
+     * Built by {@link VirtualMachineSlave}, the retry policy is not bound from the configuration form.
+     *
+     * @param retryPolicy how long to wait between launch attempts, {@code null} for the fixed wait
+     */
+    public VirtualMachineLauncher(ComputerLauncher delegate, String hypervisorDescription, String virtualMachineName, String snapshotName,
+            int waitingTimeSecs, int timesToRetryOnFailure, RetryPolicy retryPolicy) {
         super();
         this.delegate = delegate;
         this.virtualMachineName = virtualMachineName;
@@ -60,18 +75,24 @@ public class VirtualMachineLauncher extends ComputerLauncher {
         this.hypervisorDescription = hypervisorDescription;
         this.WAIT_TIME_MS = waitingTimeSecs*1000;
         this.timesToRetryOnFailure = timesToRetryOnFailure;
+        this.retryPolicy = retryPolicy;
     }
 
+    /**
+     * @return the waits between the connection attempts; launchers saved before the policy existed wait
+     *         the startup idle time before every attempt
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy != null ? retryPolicy : RetryPolicy.fixed(WAIT_TIME_MS);
+    }
+
+    /**
+     * Returns the handle of the VM of this slave. Whether the VM actually exists on the hypervisor is only
+     * known once its domain is looked up.
+     */
     public VirtualMachine getVirtualMachine() throws RuntimeException{
         if (hypervisorDescription != null && virtualMachineName != null) {
-            LOGGER.log(Level.FINE, "Grabbing hypervisor...");
-            Hypervisor hypervisor = getHypervisor();
-            LOGGER.log(Level.FINE, "Hypervisor found, searching for a matching virtual machine for \"" + virtualMachineName + "\"...");
-            for (VirtualMachine vm : hypervisor.getVirtualMachines()) {
-                if (vm.getName().equals(virtualMachineName)) {
-                    return vm;
-                }
-            }
+            return getHypervisor().getVirtualMachine(virtualMachineName);
         }
         LOGGER.log(Level.SEVERE, "Couldn't find vm " + virtualMachineName + " on hypervisor " + hypervisorDescription);
         throw new RuntimeException("Could not find virtual machine on the hypervisor");
@@ -92,12 +113,9 @@ public class VirtualMachineLauncher extends ComputerLauncher {
 
     public Hypervisor getHypervisor() throws RuntimeException {
         if (hypervisorDescription != null && virtualMachineName != null) {
-            Hypervisor hypervisor = null;
-            for (Cloud cloud : Jenkins.getInstance().clouds) {
-                if (cloud instanceof Hypervisor && ((Hypervisor) cloud).getHypervisorDescription().equals(hypervisorDescription)) {
-                    hypervisor = (Hypervisor) cloud;
-                    return hypervisor;
-                }
+            Hypervisor hypervisor = Hypervisor.findByDescription(hypervisorDescription);
+            if (hypervisor != null) {
+                return hypervisor;
             }
         }
         LOGGER.log(Level.SEVERE, "Could not find our libvirt cloud instance!");
@@ -108,21 +126,45 @@ public class VirtualMachineLauncher extends ComputerLauncher {
     public void launch(SlaveComputer slaveComputer, TaskListener taskListener) throws IOException, InterruptedException {
     	
     	taskListener.getLogger().println("Virtual machine \"" + virtualMachineName + "\" (slave title \"" + slaveComputer.getDisplayName() + "\") is to be started.");
+        PhaseTimer timer = new PhaseTimer(hypervisorDescription, virtualMachineName);
     	try {
             taskListener.getLogger().println("Connecting to the hypervisor...");
             VirtualMachine virtualMachine = getVirtualMachine(); //throw runtime
             Hypervisor hypervisor = getHypervisor();
-            IDomain domain = hypervisor.getDomainByName(virtualMachine.getName()); //virt and runtime exceptions
-            if (hypervisor.isFull()){ //Should be checked by the listener but, just to be sure
-                taskListener.getLogger().println("Hypervisor " + hypervisorDescription + " is full, can't launch new vms");
-                return;
+            if (!hypervisor.isAvailable()) {
+                throw new AbortException("Hypervisor " + hypervisorDescription + " is unavailable, can't launch new vms");
+            }
+            timer.begin("connect");
+            if (hypervisor.getConnection() == null) {
+                throw new AbortException("Cannot connect to hypervisor " + hypervisorDescription + ", can't launch new vms");
+            }
+            timer.begin("lookup");
+            IDomain domain = hypervisor.findDomain(virtualMachine.getName()); //virt and runtime exceptions
+            timer.end();
+            // the listener has already taken a slot for this slave in preLaunch, so only check if it didn't
+            if (!hypervisor.isVMOnline(slaveComputer.getDisplayName(), virtualMachineName) && hypervisor.isFull()) {
+                throw new AbortException("Hypervisor " + hypervisorDescription + " is full, can't launch new vms");
             }
             if (domain != null) {
+                // from the first connection attempt until the channel is up, across retries
+                long channelStarted;
                 if( domain.isNotBlockedAndNotRunning() ) {
-                    taskListener.getLogger().println("Starting, waiting for " + WAIT_TIME_MS + "ms to let it fully boot up...");
-                    domain.create();
-                    Thread.sleep(WAIT_TIME_MS);
+                    BootThrottle throttle = hypervisor.getBootThrottle();
+                    if (throttle.isSaturated()) {
+                        taskListener.getLogger().println("Waiting for a boot slot on " + hypervisorDescription + " ("
+                                + throttle.getRunning() + " booting, " + throttle.getQueueLength() + " waiting)...");
+                    }
+                    if (domain.hasManagedSaveImage()) {
+                        taskListener.getLogger().println("Restoring from managed save image.");
+                    }
+                    RetryPolicy retryPolicy = getRetryPolicy();
+                    long delay = retryPolicy.getDelayMs(0);
+                    taskListener.getLogger().println("Starting, waiting for " + delay + "ms to let it boot up...");
+                    // the boot slot is only held while the guest boots, not while the agent connects
+                    hypervisor.bootDomain(domain, virtualMachineName, delay, timer);
+                    long startedAt = System.currentTimeMillis() - delay;
 
+                    channelStarted = System.currentTimeMillis();
                     int attempts = 0;
                     while (true) {
                         attempts++;
@@ -130,10 +172,12 @@ public class VirtualMachineLauncher extends ComputerLauncher {
                         taskListener.getLogger().println("Connecting slave client.");
 
                         // This call doesn't seem to actually throw anything, but we'll catch IOException just in case
+                        timer.begin("delegate-launch");
                         try {
                             delegate.launch(slaveComputer, taskListener);
                         } catch (IOException e) {
                         }
+                        timer.end();
 
                         if (slaveComputer.isOnline()) {
                             break;
@@ -141,28 +185,60 @@ public class VirtualMachineLauncher extends ComputerLauncher {
                             taskListener.getLogger().println("Maximum retries reached. Failed to start slave client.");
                             break;
                         }
+                        delay = retryPolicy.getDelayMs(attempts);
+                        if (!retryPolicy.isWithinDeadline(startedAt, delay)) {
+                            taskListener.getLogger().println("Launch deadline of " + retryPolicy.getDeadlineMs()
+                                    + "ms reached. Failed to start slave client.");
+                            break;
+                        }
 
-                        taskListener.getLogger().println("Not up yet, waiting for " + WAIT_TIME_MS + "ms more (" +
+                        taskListener.getLogger().println("Not up yet, waiting for " + delay + "ms more (" +
                                                          attempts + "/" + timesToRetryOnFailure + " retries)...");
                         //Make sure a third party didn't destroy or undefine the vm between retry attempts
-                        domain = getHypervisor().getDomainByName(virtualMachine.getName());
+                        timer.begin("lookup");
+                        domain = hypervisor.findDomain(virtualMachine.getName());
                         if (domain == null){
                             throw new IOException("Could not find VM \"" + virtualMachine.getName() + "\" aborting");
                         }
                         if (domain.isNotBlockedAndNotRunning()) {
                             taskListener.getLogger().println("Could not create VM \"" + virtualMachine.getName() + "\" trying again");
-                            domain.create();
+                            hypervisor.bootDomain(domain, virtualMachineName, delay, timer);
+                            continue;
+                        }
+                        timer.begin("boot-wait");
+                        if (awaitOnline(slaveComputer, delay)) {
+                            break;
                         }
-                        Thread.sleep(WAIT_TIME_MS);
                     }
                 } else {
                     taskListener.getLogger().println("Already running, no startup required.");
                     taskListener.getLogger().println("Connecting slave client.");
+                    channelStarted = System.currentTimeMillis();
+                    timer.begin("delegate-launch");
                     delegate.launch(slaveComputer, taskListener);
+                    timer.end();
+                }
+                if (slaveComputer.isOnline()) {
+                    timer.record("channel-online", channelStarted);
+                    timer.finish("online", taskListener);
+                    hypervisor.getLaunchQuarantine().recordSuccess(virtualMachineName);
+                } else {
+                    timer.finish("failed", taskListener);
+                    recordLaunchFailure("The slave did not come online", null);
                 }
             } else {
 	            throw new IOException("VM \"" + virtualMachine.getName() + "\" (slave title \"" + slaveComputer.getDisplayName() + "\") not found!");
             }
+        } catch (AbortException e) {
+            // the hypervisor can't take the VM right now, which says nothing about the VM itself
+            taskListener.error(e.getMessage());
+            LOGGER.log(Level.WARNING, "Not launching {0}: {1}", new Object[]{virtualMachineName, e.getMessage()});
+            throw e;
+        } catch (InterruptedException e) {
+            // the launch was cancelled, not failed, so it doesn't count against the VM
+            taskListener.getLogger().println("Launch of \"" + virtualMachineName + "\" interrupted.");
+            Thread.currentThread().interrupt();
+            throw e;
         } catch (IOException e) {
             taskListener.fatalError(e.getMessage(), e);
             
@@ -170,6 +246,7 @@ public class VirtualMachineLauncher extends ComputerLauncher {
             rec.setParameters(new Object[]{virtualMachineName, hypervisorDescription});
             rec.setThrown(e);
             LOGGER.log(rec);
+            recordLaunchFailure(e.getMessage(), e);
             throw e;
         } catch (Throwable t) {
         	taskListener.fatalError(t.getMessage(), t);
@@ -178,6 +255,49 @@ public class VirtualMachineLauncher extends ComputerLauncher {
             rec.setParameters(new Object[]{virtualMachineName, hypervisorDescription});
             rec.setThrown(t);
             LOGGER.log(rec);
+            recordLaunchFailure(String.valueOf(t), t);
+        } finally {
+            if (!slaveComputer.isOnline()) {
+                HedgedLaunches.launchEnded(slaveComputer.getName());
+            }
+        }
+    }
+
+    /**
+     * Waits for the slave to come online, e.g. when its agent connects by itself.
+     *
+     * @return whether the slave is online
+     */
+    private static boolean awaitOnline(SlaveComputer slaveComputer, long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (!slaveComputer.isOnline()) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(left, ONLINE_POLL_MS));
+        }
+        return true;
+    }
+
+    /**
+     * Counts a failed launch against the VM, unless the whole hypervisor is unreachable or only too busy to
+     * take the calls of the launch.
+     *
+     * @param cause what failed the launch, if anything was thrown
+     * @see LaunchQuarantine
+     */
+    private void recordLaunchFailure(String reason, Throwable cause) {
+        if (cause instanceof VirtBusyException) {
+            return;
+        }
+        try {
+            Hypervisor hypervisor = getHypervisor();
+            if (hypervisor.isAvailable()) {
+                hypervisor.getLaunchQuarantine().recordFailure(virtualMachineName, reason);
+            }
+        } catch (RuntimeException e) {
+            // the hypervisor is gone, so is the VM
         }
     }
 
@@ -5,12 +5,20 @@ import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
 import hudson.Extension;
 import hudson.model.*;
+import hudson.plugins.libvirt.metrics.MetricsExporter;
+import hudson.plugins.libvirt.metrics.RpcMetrics;
 import jenkins.model.Jenkins;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerProxy;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 import static hudson.plugins.libvirt.util.Consts.PLUGIN_IMAGES_URL;
 
@@ -77,6 +85,38 @@ public class VirtualMachineManagement extends ManagementLink implements StaplerP
     }
 
 
+    /**
+     * Serves the launch phase timings and the hypervisor call statistics, as JSON or,
+     * with <code>?format=prometheus</code>, in the Prometheus text format.
+     */
+    public void doMetrics(StaplerRequest req, StaplerResponse rsp, @QueryParameter String format) throws IOException {
+        if ("prometheus".equals(format)) {
+            rsp.setContentType("text/plain; version=0.0.4;charset=UTF-8");
+            rsp.getWriter().write(MetricsExporter.toPrometheus());
+        } else {
+            rsp.setContentType("application/json;charset=UTF-8");
+            rsp.getWriter().write(MetricsExporter.toJSON().toString());
+        }
+    }
+
+    public List<RpcMetrics.Operation> getRpcOperations() {
+        List<RpcMetrics.Operation> operations = RpcMetrics.getOperations();
+        Collections.sort(operations, new Comparator<RpcMetrics.Operation>() {
+            public int compare(RpcMetrics.Operation a, RpcMetrics.Operation b) {
+                int c = a.getHypervisor().compareTo(b.getHypervisor());
+                return c != 0 ? c : a.getMethod().compareTo(b.getMethod());
+            }
+        });
+        return operations;
+    }
+
+    /**
+     * @return the queue demand learnt per label, busiest in the coming hour first
+     */
+    public List<DemandForecast.LabelDemand> getForecasts() {
+        return DemandForecast.get().getLabels();
+    }
+
     public Collection<String> getServerNames() {
         return Collections2.transform(PluginImpl.getInstance().getServers(), new Function<Hypervisor, String>() {
             public String apply(@Nullable Hypervisor input) {
@@ -1,21 +1,32 @@
 package hudson.plugins.libvirt;
 
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
+import hudson.model.Failure;
 import hudson.model.Hudson;
 import hudson.plugins.libvirt.lib.IDomain;
 import hudson.plugins.libvirt.lib.VirtException;
+import hudson.plugins.libvirt.metrics.RingBuffer;
+import hudson.plugins.libvirt.metrics.Sparkline;
+import hudson.plugins.libvirt.metrics.Utilization;
 import hudson.plugins.libvirt.util.Consts;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
 
 import javax.servlet.ServletException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by magnayn on 22/02/2014.
@@ -42,6 +53,108 @@ public class VirtualMachineManagementServer implements Describable<VirtualMachin
         return theCloud.getDomains().values();
     }
 
+    /**
+     * Serves a page of the domain inventory as JSON; the page loads its rows from here instead of
+     * querying every domain while rendering. With <code>since</code>, only the rows of the page that
+     * changed after that inventory version are returned.
+     */
+    public void doDomains(StaplerRequest req, StaplerResponse rsp, @QueryParameter int start, @QueryParameter int limit,
+            @QueryParameter long since) throws IOException {
+        DomainInventory inventory = theCloud.getInventory();
+        inventory.refreshIfOlderThan(DomainInventory.MAX_AGE_MS);
+        if (limit <= 0) {
+            limit = 50;
+        }
+
+        JSONArray rows = new JSONArray();
+        for (DomainInventory.Row row : inventory.getPage(Math.max(0, start), limit)) {
+            if (row.getVersion() <= since) {
+                continue;
+            }
+            JSONObject o = new JSONObject();
+            o.put("name", row.getName());
+            o.put("running", row.isRunning());
+            o.put("snapshots", row.getSnapshots());
+            rows.add(o);
+        }
+        JSONObject json = new JSONObject();
+        json.put("version", inventory.getVersion());
+        json.put("refreshedAt", inventory.getRefreshedAt());
+        json.put("total", inventory.size());
+        json.put("rows", rows);
+        json.put("removed", since > 0 ? inventory.getRemovedSince(since) : new JSONArray());
+        json.put("reload", since > 0 && !inventory.isRemovedKnownSince(since));
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(json.toString());
+    }
+
+
+    public Map<String, Long> getLeakedDomains() {
+        return theCloud.getLeakedDomains();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return theCloud.getCircuitBreaker();
+    }
+
+    public String getRetryIn() {
+        return Util.getTimeSpanString(theCloud.getCircuitBreaker().getRetryInMs());
+    }
+
+    public List<LaunchQuarantine.Entry> getLaunchFailures() {
+        return theCloud.getLaunchQuarantine().getEntries();
+    }
+
+    /**
+     * Lets a VM that was held back after failed launches be launched again.
+     */
+    @RequirePOST
+    public void doReleaseQuarantine(@QueryParameter("vmName") String vmName, StaplerRequest req, StaplerResponse rsp)
+            throws IOException {
+        theCloud.getLaunchQuarantine().release(vmName);
+        rsp.sendRedirect(".");
+    }
+
+    public HostUtilization getUtilization() {
+        return theCloud.getUtilization();
+    }
+
+    public String[] getUtilizationMetrics() {
+        return new String[]{Utilization.CPU, Utilization.MEMORY, Utilization.DISK_READ, Utilization.DISK_WRITE,
+                Utilization.NET_RX, Utilization.NET_TX};
+    }
+
+    /**
+     * Renders the history of one metric as an SVG sparkline; percentages are drawn on a fixed 0-100 scale.
+     */
+    public String sparkline(Utilization utilization, String metric) {
+        RingBuffer series = utilization.get(metric);
+        boolean percent = Utilization.CPU.equals(metric) || Utilization.MEMORY.equals(metric);
+        return Sparkline.svg(series.getValues(), percent ? 100 : 0);
+    }
+
+    public String latest(Utilization utilization, String metric) {
+        double value = utilization.get(metric).getLast();
+        if (Utilization.CPU.equals(metric) || Utilization.MEMORY.equals(metric)) {
+            return String.format("%.0f%%", value);
+        }
+        if (value >= 1024 * 1024) {
+            return String.format("%.1f MB/s", value / (1024 * 1024));
+        }
+        return String.format("%.1f KB/s", value / 1024);
+    }
+
+    public String getAge(Long since) {
+        return Util.getTimeSpanString(System.currentTimeMillis() - since);
+    }
+
+    public boolean isFuture(long time) {
+        return time > System.currentTimeMillis();
+    }
+
+    public String getTimeUntil(long time) {
+        return Util.getTimeSpanString(time - System.currentTimeMillis());
+    }
 
     public String asTime(Long time) {
         if( time == null )
@@ -62,10 +175,49 @@ public class VirtualMachineManagementServer implements Describable<VirtualMachin
             InterruptedException, VirtException {
 
         theCloud.getDomains().get(stopId).shutdown();
+        theCloud.getInventory().invalidate();
 
         rsp.sendRedirect(".");
     }
 
+    public List<DomainBatch.Action> getBatchActions() {
+        return Arrays.asList(DomainBatch.Action.values());
+    }
+
+    /**
+     * Starts a lifecycle operation on the selected domains in the background and shows its progress.
+     */
+    @RequirePOST
+    public void doBatchSubmit(@QueryParameter("action") String action, @QueryParameter("snapshotName") String snapshotName,
+            StaplerRequest req, StaplerResponse rsp) throws ServletException, IOException {
+        DomainBatch.Action batchAction = null;
+        for (DomainBatch.Action a : DomainBatch.Action.values()) {
+            if (a.name().equals(action)) {
+                batchAction = a;
+            }
+        }
+        if (batchAction == null) {
+            throw new Failure("Unknown batch operation: " + action);
+        }
+        if (batchAction == DomainBatch.Action.REVERT && Util.fixEmptyAndTrim(snapshotName) == null) {
+            throw new Failure("Enter the snapshot to revert the domains to.");
+        }
+        String[] names = req.getParameterValues("vmName");
+        if (names == null || names.length == 0) {
+            rsp.sendRedirect(".");
+            return;
+        }
+        new DomainBatch(theCloud, batchAction, Util.fixEmptyAndTrim(snapshotName)).submit(Arrays.asList(names));
+        rsp.sendRedirect("batchResult");
+    }
+
+    /**
+     * @return the batch operation started last on this hypervisor, or null
+     */
+    public DomainBatch getLatestBatch() {
+        return DomainBatch.getLatest(theCloud);
+    }
+
     @Extension
     public static final class DescriptorImpl extends Descriptor<VirtualMachineManagementServer> {
 
@@ -58,6 +58,12 @@ public class VirtualMachineSlave extends Slave {
     private boolean             rebootAfterRun;
     private int                 startupTimesToRetryOnFailure;
     private String              beforeJobSnapshotName;
+    private int                 shutdownTimeoutSeconds;
+    private int                 guestStatsIntervalSeconds;
+    private int                 retryInitialDelaySeconds;
+    private double              retryMultiplier;
+    private int                 retryJitterPercent;
+    private int                 launchDeadlineSeconds;
 
 
     @DataBoundConstructor
@@ -65,11 +71,14 @@ public class VirtualMachineSlave extends Slave {
             Mode mode, String labelString, VirtualMachineLauncher launcher, ComputerLauncher delegateLauncher,
             RetentionStrategy<VirtualMachineSlaveComputer> retentionStrategy, List<? extends NodeProperty<?>> nodeProperties,
             String hypervisorDescription, String virtualMachineName, String snapshotName, int startupWaitingPeriodSeconds,
-            String shutdownMethod, boolean rebootAfterRun, int startupTimesToRetryOnFailure, String beforeJobSnapshotName)
+            String shutdownMethod, boolean rebootAfterRun, int startupTimesToRetryOnFailure, String beforeJobSnapshotName,
+            int shutdownTimeoutSeconds, int guestStatsIntervalSeconds, int retryInitialDelaySeconds, double retryMultiplier,
+            int retryJitterPercent, int launchDeadlineSeconds)
             throws
             Descriptor.FormException, IOException {
         super(name, nodeDescription, remoteFS, Util.tryParseNumber(numExecutors, 1).intValue(), mode, labelString,
-                launcher == null ? new VirtualMachineLauncher(delegateLauncher, hypervisorDescription, virtualMachineName, snapshotName, startupWaitingPeriodSeconds, startupTimesToRetryOnFailure) : launcher,
+                launcher == null ? new VirtualMachineLauncher(delegateLauncher, hypervisorDescription, virtualMachineName, snapshotName, startupWaitingPeriodSeconds, startupTimesToRetryOnFailure,
+                        createRetryPolicy(startupWaitingPeriodSeconds, retryInitialDelaySeconds, retryMultiplier, retryJitterPercent, launchDeadlineSeconds)) : launcher,
                 retentionStrategy, nodeProperties);        
         this.hypervisorDescription = hypervisorDescription;
         this.virtualMachineName = virtualMachineName;
@@ -79,6 +88,25 @@ public class VirtualMachineSlave extends Slave {
         this.rebootAfterRun = rebootAfterRun;
         this.startupTimesToRetryOnFailure = startupTimesToRetryOnFailure;
         this.beforeJobSnapshotName = beforeJobSnapshotName;
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+        this.guestStatsIntervalSeconds = guestStatsIntervalSeconds;
+        this.retryInitialDelaySeconds = retryInitialDelaySeconds;
+        this.retryMultiplier = retryMultiplier;
+        this.retryJitterPercent = retryJitterPercent;
+        this.launchDeadlineSeconds = launchDeadlineSeconds;
+    }
+
+    /**
+     * The startup idle time caps the wait between two attempts. Without an initial delay every attempt waits
+     * the startup idle time, as before the backoff existed.
+     */
+    private static RetryPolicy createRetryPolicy(int startupWaitingPeriodSeconds, int retryInitialDelaySeconds, double retryMultiplier,
+                                                 int retryJitterPercent, int launchDeadlineSeconds) {
+        if (retryInitialDelaySeconds <= 0) {
+            return new RetryPolicy(startupWaitingPeriodSeconds * 1000L, 1, 0, retryJitterPercent / 100.0, launchDeadlineSeconds * 1000L);
+        }
+        return new RetryPolicy(retryInitialDelaySeconds * 1000L, retryMultiplier, startupWaitingPeriodSeconds * 1000L,
+                retryJitterPercent / 100.0, launchDeadlineSeconds * 1000L);
     }
 
     public String getHypervisorDescription() {
@@ -113,6 +141,39 @@ public class VirtualMachineSlave extends Slave {
         return beforeJobSnapshotName;
     }
 
+    public int getShutdownTimeoutSeconds() {
+        return shutdownTimeoutSeconds;
+    }
+
+    /**
+     * @return how often the guest statistics are sampled during a build, 0 to not collect them
+     */
+    public int getGuestStatsIntervalSeconds() {
+        return guestStatsIntervalSeconds;
+    }
+
+    /**
+     * @return the wait before the first connection attempt, 0 to wait the startup idle time before every attempt
+     */
+    public int getRetryInitialDelaySeconds() {
+        return retryInitialDelaySeconds;
+    }
+
+    public double getRetryMultiplier() {
+        return retryMultiplier;
+    }
+
+    public int getRetryJitterPercent() {
+        return retryJitterPercent;
+    }
+
+    /**
+     * @return how long after the start of the VM connection attempts are made, 0 for as long as retries are left
+     */
+    public int getLaunchDeadlineSeconds() {
+        return launchDeadlineSeconds;
+    }
+
     public ComputerLauncher getDelegateLauncher() {
         return ((VirtualMachineLauncher) getLauncher()).getDelegate();
     }
@@ -137,6 +198,12 @@ public class VirtualMachineSlave extends Slave {
             
             VirtualMachineLauncher vmL = (VirtualMachineLauncher) ((SlaveComputer) c).getLauncher();
             Hypervisor vmC = vmL.getHypervisor();
+
+            if (!vmC.isAvailable())
+                throw new AbortException("Hypervisor \"" + vmC.getHypervisorDescription() + "\" is unavailable, slave commissioning delayed.");
+
+            if (vmC.getLaunchQuarantine().isBlocked(vmL.getVirtualMachineName()))
+                throw new AbortException("Virtual machine \"" + vmL.getVirtualMachineName() + "\" failed to launch recently and is held back, see the hypervisor management page.");
             
             if (!vmC.markVMOnline(c.getDisplayName(), vmL.getVirtualMachineName()))
                 throw new AbortException("Capacity threshold  (" + vmC.getMaxOnlineSlaves() + ") reached at hypervisor \"" + vmC.getHypervisorDescription() + "\", slave commissioning delayed.");
@@ -186,8 +253,15 @@ public class VirtualMachineSlave extends Slave {
         public List<VirtualMachine> getDefinedVirtualMachines(String hypervisorDescription) {
             List<VirtualMachine> virtualMachinesList = new ArrayList<VirtualMachine>();                       
             Hypervisor hypervisor = getHypervisorByDescription(hypervisorDescription);
-            if (hypervisor != null)
+            if (hypervisor != null) {
             	virtualMachinesList.addAll(hypervisor.getVirtualMachines());
+                // the snapshot dropdown is filled next, have the lists ready by then
+                List<String> names = new ArrayList<String>();
+                for (VirtualMachine vm : virtualMachinesList) {
+                    names.add(vm.getName());
+                }
+                hypervisor.getSnapshotCache().prefetch(names);
+            }
             Collections.sort(virtualMachinesList);
             return virtualMachinesList;
         }
@@ -225,11 +299,7 @@ public class VirtualMachineSlave extends Slave {
         
         private Hypervisor getHypervisorByDescription (String hypervisorDescription) {
         	if (hypervisorDescription != null && !hypervisorDescription.equals("")) {
-	        	for (Cloud cloud : Hudson.getInstance().clouds) {
-	                if (cloud instanceof Hypervisor && ((Hypervisor) cloud).getHypervisorDescription().equals(hypervisorDescription)) {
-	                    return (Hypervisor) cloud;
-	                }
-	            }
+                return Hypervisor.findByDescription(hypervisorDescription);
         	}
             return null;
         }
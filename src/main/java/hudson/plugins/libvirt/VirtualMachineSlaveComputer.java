@@ -25,6 +25,7 @@ import hudson.plugins.libvirt.lib.IDomain;
 import hudson.plugins.libvirt.lib.VirtException;
 import hudson.slaves.OfflineCause;
 import hudson.plugins.libvirt.lib.IConnect;
+import hudson.plugins.libvirt.metrics.PhaseTimer;
 import hudson.slaves.SlaveComputer;
 import hudson.util.StreamTaskListener;
 import hudson.util.io.ReopenableRotatingFileOutputStream;
@@ -32,6 +33,7 @@ import hudson.model.Slave;
 
 import java.util.Map;
 import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -84,30 +86,37 @@ public class VirtualMachineSlaveComputer extends SlaveComputer {
 		}
 		logger.log(Level.INFO, "Virtual machine \"" + getVirtualMachineName() + "\" (slave \"" + getDisplayName() + "\") is to be shut down." + reason);
 		taskListener.getLogger().println("Virtual machine \"" + getVirtualMachineName() + "\" (slave \"" + getDisplayName() + "\") is to be shut down.");
+		PhaseTimer timer = new PhaseTimer(hypervisor.getHypervisorDescription(), getVirtualMachineName());
 		try {			
+            timer.begin("lookup");
             IDomain domain = hypervisor.getDomainByName(getVirtualMachineName());
+            timer.end();
             if (domain != null) {
             	if (domain.isRunningOrBlocked()) {
             		String snapshotName = slave.getSnapshotName();
                     if (snapshotName != null && snapshotName.length() > 0) {
                     	taskListener.getLogger().println("Reverting to " + snapshotName + " and shutting down.");
-                    	domain.revertToSnapshot(domain.snapshotLookupByName(snapshotName));
-                    } else {
-                    	taskListener.getLogger().println("Shutting down.");
-
-                        System.err.println("method: " + slave.getShutdownMethod());
-                        if (slave.getShutdownMethod().equals("suspend")) {
-                            domain.suspend();
-                        } else if (slave.getShutdownMethod().equals("destroy")) {
-                            domain.destroy();
-                        } else {
-                    	    domain.shutdown();
+                        timer.begin("revert");
+                        Lock lock = hypervisor.getDomainLock(getVirtualMachineName());
+                        lock.lock();
+                        try {
+                            domain.revertToSnapshot(domain.snapshotLookupByName(snapshotName));
+                        } finally {
+                            lock.unlock();
                         }
+                        hypervisor.getSnapshotCache().invalidate(getVirtualMachineName());
+                    } else {
+                    	taskListener.getLogger().println("Shutting down (method: " + slave.getShutdownMethod() + ").");
+                        // the shutdown itself is timed by the controller, until the domain is down
+                        timer.begin("shutdown-request");
+                        new ShutdownController(hypervisor, getVirtualMachineName(), slave.getShutdownMethod(),
+                                slave.getShutdownTimeoutSeconds()).shutdown(domain, taskListener);
                     }
                 } else {
                     taskListener.getLogger().println("Already suspended, no shutdown required.");
                 }
                 hypervisor.markVMOffline(getDisplayName(), getVirtualMachineName());
+                timer.finish("disconnect", taskListener);
             } else {
             	// log to slave 
             	taskListener.getLogger().println("\"" + getVirtualMachineName() + "\" not found on Hypervisor, can not shut down!");
@@ -0,0 +1,143 @@
+package hudson.plugins.libvirt;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Item;
+import hudson.model.LoadBalancer;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.MappingWorksheet;
+import hudson.model.queue.MappingWorksheet.ExecutorChunk;
+import hudson.model.queue.MappingWorksheet.Mapping;
+import hudson.model.queue.MappingWorksheet.WorkChunk;
+import jenkins.model.Jenkins;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends builds back to the libvirt slave that last ran their job, where the workspace and caches are still warm.
+ * <p>
+ * The preference is, in order: the online slave that last ran the job, any other online slave as chosen by the
+ * load balancer that was installed before, and only then an offline slave that has to be booted. The last tier
+ * is not the load balancer's to pick, since offline slaves offer no executors; there {@link LibvirtRetentionStrategy}
+ * leaves the boot to the slave that last ran the job, as long as that one can be launched.
+ * <p>
+ * Which slave last ran a job is kept in memory by {@link AffinityRecorder} and starts empty after a restart.
+ */
+public class WorkspaceAffinityLoadBalancer extends LoadBalancer {
+
+    private static final Logger LOGGER = Logger.getLogger(WorkspaceAffinityLoadBalancer.class.getName());
+
+    /**
+     * Whether the load balancer is installed on startup.
+     */
+    public static final boolean ENABLED = !Boolean.getBoolean(WorkspaceAffinityLoadBalancer.class.getName() + ".disabled");
+
+    /**
+     * The full name of a job to the name of the libvirt slave its latest build started on.
+     */
+    private static final Map<String, String> LAST_NODE = new ConcurrentHashMap<String, String>();
+
+    private final LoadBalancer fallback;
+
+    public WorkspaceAffinityLoadBalancer(LoadBalancer fallback) {
+        this.fallback = fallback;
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void install() {
+        if (!ENABLED) {
+            return;
+        }
+        Queue queue = Jenkins.getInstance().getQueue();
+        LoadBalancer current = queue.getLoadBalancer();
+        if (!(current instanceof WorkspaceAffinityLoadBalancer)) {
+            queue.setLoadBalancer(new WorkspaceAffinityLoadBalancer(current));
+        }
+    }
+
+    @Override
+    public Mapping map(Queue.Task task, MappingWorksheet worksheet) {
+        String nodeName = getLastNode(task);
+        // tasks split over several executors are left to the fallback, the affinity is only kept for the main one
+        if (nodeName != null && worksheet.works.size() == 1) {
+            WorkChunk work = worksheet.works(0);
+            for (ExecutorChunk executors : work.applicableExecutorChunks()) {
+                if (executors.node instanceof VirtualMachineSlave && nodeName.equals(executors.node.getNodeName())
+                        && executors.capacity() >= work.size()) {
+                    Mapping m = worksheet.new Mapping();
+                    m.assign(0, executors);
+                    if (m.isCompletelyValid()) {
+                        LOGGER.log(Level.FINE, "Sending {0} back to {1}", new Object[]{task.getFullDisplayName(), nodeName});
+                        return m;
+                    }
+                }
+            }
+        }
+        return fallback.map(task, worksheet);
+    }
+
+    /**
+     * @param task a queued task
+     * @return the name of the libvirt slave the latest build of the task started on, or null if unknown
+     */
+    static String getLastNode(Queue.Task task) {
+        return task instanceof Item ? LAST_NODE.get(((Item) task).getFullName()) : null;
+    }
+
+    /**
+     * @param item a build waiting in the queue
+     * @param vm   an offline slave that could be booted for it
+     * @return whether another offline slave last ran the job and should be booted instead of the given one
+     */
+    static boolean prefersOther(Queue.BuildableItem item, VirtualMachineSlaveComputer vm) {
+        if (!ENABLED) {
+            return false;
+        }
+        String nodeName = getLastNode(item.task);
+        if (nodeName == null || nodeName.equals(vm.getName())) {
+            return false;
+        }
+        Node node = Jenkins.getInstance().getNode(nodeName);
+        if (!(node instanceof VirtualMachineSlave) || node.canTake(item) != null) {
+            return false;
+        }
+        Computer c = node.toComputer();
+        if (!(c instanceof VirtualMachineSlaveComputer) || !c.isOffline() || c.isConnecting()) {
+            return false;
+        }
+        VirtualMachineSlaveComputer other = (VirtualMachineSlaveComputer) c;
+        return other.getRetentionStrategy() instanceof LibvirtRetentionStrategy
+                && other.getRetentionStrategy().isManualLaunchAllowed(other);
+    }
+
+    /**
+     * Maintains the job to slave index as builds start.
+     */
+    @Extension
+    public static class AffinityRecorder extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onStarted(Run<?, ?> r, TaskListener listener) {
+            Executor executor = r.getExecutor();
+            if (executor == null) {
+                return;
+            }
+            Node node = executor.getOwner().getNode();
+            if (node instanceof VirtualMachineSlave) {
+                LAST_NODE.put(r.getParent().getFullName(), node.getNodeName());
+            } else {
+                LAST_NODE.remove(r.getParent().getFullName());
+            }
+        }
+    }
+}
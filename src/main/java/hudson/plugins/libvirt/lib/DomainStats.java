@@ -0,0 +1,63 @@
+package hudson.plugins.libvirt.lib;
+
+/**
+ * Resource counters of a running domain at one point in time. CPU time, disk and network are cumulative
+ * counters since the domain started; usage rates are computed from the difference of two samples.
+ */
+public class DomainStats {
+    private final long cpuTimeNanos;
+    private final int virtualCpus;
+    private final long memoryKb;
+    private final long balloonKb;
+    private final long diskReadBytes;
+    private final long diskWriteBytes;
+    private final long netRxBytes;
+    private final long netTxBytes;
+
+    public DomainStats(long cpuTimeNanos, int virtualCpus, long memoryKb, long balloonKb, long diskReadBytes,
+                       long diskWriteBytes, long netRxBytes, long netTxBytes) {
+        this.cpuTimeNanos = cpuTimeNanos;
+        this.virtualCpus = virtualCpus;
+        this.memoryKb = memoryKb;
+        this.balloonKb = balloonKb;
+        this.diskReadBytes = diskReadBytes;
+        this.diskWriteBytes = diskWriteBytes;
+        this.netRxBytes = netRxBytes;
+        this.netTxBytes = netTxBytes;
+    }
+
+    public long getCpuTimeNanos() {
+        return cpuTimeNanos;
+    }
+
+    public int getVirtualCpus() {
+        return virtualCpus;
+    }
+
+    public long getMemoryKb() {
+        return memoryKb;
+    }
+
+    /**
+     * @return the memory the balloon driver currently leaves to the guest, the memory of the domain without one
+     */
+    public long getBalloonKb() {
+        return balloonKb;
+    }
+
+    public long getDiskReadBytes() {
+        return diskReadBytes;
+    }
+
+    public long getDiskWriteBytes() {
+        return diskWriteBytes;
+    }
+
+    public long getNetRxBytes() {
+        return netRxBytes;
+    }
+
+    public long getNetTxBytes() {
+        return netTxBytes;
+    }
+}
@@ -0,0 +1,31 @@
+package hudson.plugins.libvirt.lib;
+
+/**
+ * Capacity and memory usage of a hypervisor host at one point in time.
+ */
+public class HostStats {
+    private final int cpus;
+    private final long memoryKb;
+    private final long freeMemoryKb;
+
+    public HostStats(int cpus, long memoryKb, long freeMemoryKb) {
+        this.cpus = cpus;
+        this.memoryKb = memoryKb;
+        this.freeMemoryKb = freeMemoryKb;
+    }
+
+    /**
+     * @return the number of active CPUs of the host
+     */
+    public int getCpus() {
+        return cpus;
+    }
+
+    public long getMemoryKb() {
+        return memoryKb;
+    }
+
+    public long getFreeMemoryKb() {
+        return freeMemoryKb;
+    }
+}
@@ -19,4 +19,6 @@ public interface IConnect {
     void close() throws VirtException;
 
     boolean isConnected() throws VirtException;
+
+    HostStats getHostStats() throws VirtException;
 }
@@ -20,9 +20,17 @@ public interface IDomain {
 
     boolean isNotBlockedAndNotRunning() throws VirtException;
 
+    boolean isShutOff() throws VirtException;
+
     void create() throws VirtException;
 
     void destroy() throws VirtException;
 
     void suspend() throws VirtException;
+
+    void managedSave() throws VirtException;
+
+    boolean hasManagedSaveImage() throws VirtException;
+
+    DomainStats getStats() throws VirtException;
 }
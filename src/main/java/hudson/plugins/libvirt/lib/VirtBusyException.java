@@ -0,0 +1,12 @@
+package hudson.plugins.libvirt.lib;
+
+/**
+ * Thrown when a call to the hypervisor was not started because too many calls to it were already running.
+ * Unlike a {@link VirtTimeoutException} it says nothing about the host or the connection, which stay in use.
+ */
+public class VirtBusyException extends VirtException {
+
+    public VirtBusyException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,12 @@
+package hudson.plugins.libvirt.lib;
+
+/**
+ * Thrown when a call to the hypervisor did not complete within its deadline. The connection it was made on
+ * is abandoned, the next call opens a new one.
+ */
+public class VirtTimeoutException extends VirtException {
+
+    public VirtTimeoutException(String s) {
+        super(s);
+    }
+}
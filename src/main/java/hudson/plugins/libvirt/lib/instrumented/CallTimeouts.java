@@ -0,0 +1,95 @@
+package hudson.plugins.libvirt.lib.instrumented;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How long each call to a hypervisor may take before it is abandoned.
+ * <p>
+ * Every operation gets the default deadline, except the ones that legitimately take long (starting a domain,
+ * reverting to a snapshot, saving its memory), which get at least {@link #LONG_OPERATION_SECONDS}. Single
+ * operations can be given their own deadline with overrides of the form <code>revertToSnapshot=600</code>.
+ */
+public final class CallTimeouts {
+
+    /**
+     * The deadline of every call when none is configured.
+     */
+    public static final int DEFAULT_SECONDS = 60;
+
+    /**
+     * The smallest deadline given to the slow lifecycle operations unless they are overridden.
+     */
+    public static final int LONG_OPERATION_SECONDS = 300;
+
+    /**
+     * The name under which establishing the connection itself can be overridden.
+     */
+    public static final String CONNECT = "connect";
+
+    private static final String[] LONG_OPERATIONS = {"create", "revertToSnapshot", "managedSave"};
+
+    public static final CallTimeouts DEFAULTS = new CallTimeouts(DEFAULT_SECONDS, Collections.<String, Integer>emptyMap());
+
+    private final int defaultSeconds;
+    private final Map<String, Integer> overrides;
+
+    /**
+     * @param defaultSeconds the deadline of every call, 0 or less to wait forever
+     * @param overrides      deadlines in seconds by operation name, 0 or less to wait forever
+     */
+    public CallTimeouts(int defaultSeconds, Map<String, Integer> overrides) {
+        this.defaultSeconds = defaultSeconds;
+        this.overrides = new HashMap<String, Integer>(overrides);
+    }
+
+    /**
+     * @param operation the name of the {@link hudson.plugins.libvirt.lib.IConnect} or
+     *                  {@link hudson.plugins.libvirt.lib.IDomain} method, or {@link #CONNECT}
+     * @return the deadline in milliseconds, 0 to wait forever
+     */
+    public long getTimeoutMs(String operation) {
+        Integer seconds = overrides.get(operation);
+        if (seconds == null) {
+            seconds = defaultSeconds;
+            if (seconds > 0) {
+                for (String slow : LONG_OPERATIONS) {
+                    if (slow.equals(operation)) {
+                        seconds = Math.max(seconds, LONG_OPERATION_SECONDS);
+                    }
+                }
+            }
+        }
+        return seconds <= 0 ? 0 : seconds * 1000L;
+    }
+
+    /**
+     * Parses overrides separated by commas or line breaks, e.g. <code>connect=20, revertToSnapshot=900</code>.
+     *
+     * @param text the overrides, may be null or empty
+     * @return the deadlines in seconds by operation name
+     * @throws IllegalArgumentException if an entry is malformed
+     */
+    public static Map<String, Integer> parseOverrides(String text) {
+        Map<String, Integer> overrides = new HashMap<String, Integer>();
+        if (text == null) {
+            return overrides;
+        }
+        for (String entry : text.split("[,\\s]+")) {
+            if (entry.length() == 0) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected operation=seconds but got \"" + entry + "\"");
+            }
+            try {
+                overrides.put(entry.substring(0, eq), Integer.parseInt(entry.substring(eq + 1)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number of seconds: \"" + entry + "\"");
+            }
+        }
+        return overrides;
+    }
+}
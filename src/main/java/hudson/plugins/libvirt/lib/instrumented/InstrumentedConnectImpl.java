@@ -0,0 +1,184 @@
+package hudson.plugins.libvirt.lib.instrumented;
+
+import hudson.plugins.libvirt.lib.ConnectionBuilder;
+import hudson.plugins.libvirt.lib.HostStats;
+import hudson.plugins.libvirt.lib.IConnect;
+import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.VirtException;
+import hudson.plugins.libvirt.lib.VirtTimeoutException;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Decorates an {@link IConnect} so that every call is counted and timed per hypervisor, and abandoned once
+ * it runs past its deadline. Domains looked up through it are decorated as well.
+ * <p>
+ * A call that times out usually means the host or the SSH tunnel to it hangs, so the whole connection is
+ * given up: it is closed in the background and reports itself as disconnected, which makes the
+ * {@link hudson.plugins.libvirt.Hypervisor} open a new one on the next call.
+ */
+public class InstrumentedConnectImpl implements IConnect {
+
+    private static final Logger LOGGER = Logger.getLogger(InstrumentedConnectImpl.class.getName());
+
+    private final IConnect connect;
+    private final String hypervisor;
+    private final CallTimeouts timeouts;
+    private volatile boolean abandoned;
+
+    public InstrumentedConnectImpl(IConnect connect, String hypervisor) {
+        this(connect, hypervisor, CallTimeouts.DEFAULTS);
+    }
+
+    public InstrumentedConnectImpl(IConnect connect, String hypervisor, CallTimeouts timeouts) {
+        this.connect = connect;
+        this.hypervisor = hypervisor;
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * Opens a connection within the {@link CallTimeouts#CONNECT} deadline. A connection that is only
+     * established after the deadline has passed is closed right away.
+     *
+     * @param builder    the builder of the connection
+     * @param hypervisor the description of the hypervisor, for the metrics
+     * @param timeouts   the deadlines of the connection and its calls
+     * @return the decorated connection
+     * @throws VirtException if the connection can't be established in time
+     */
+    public static InstrumentedConnectImpl connect(final ConnectionBuilder builder, String hypervisor, CallTimeouts timeouts) throws VirtException {
+        final AtomicBoolean gaveUp = new AtomicBoolean();
+        try {
+            IConnect connect = RpcCall.invoke(hypervisor, CallTimeouts.CONNECT, timeouts.getTimeoutMs(CallTimeouts.CONNECT), new RpcCall<IConnect>() {
+                IConnect call() throws VirtException {
+                    IConnect connect = builder.build();
+                    if (gaveUp.get()) {
+                        connect.close();
+                    }
+                    return connect;
+                }
+            });
+            return new InstrumentedConnectImpl(connect, hypervisor, timeouts);
+        } catch (VirtTimeoutException e) {
+            gaveUp.set(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a call of this connection or one of its domains within the deadline of the operation.
+     */
+    <T> T invoke(String method, RpcCall<T> rpc) throws VirtException {
+        if (abandoned) {
+            throw new VirtException("The connection to " + hypervisor + " was abandoned after a call timed out");
+        }
+        try {
+            return RpcCall.invoke(hypervisor, method, timeouts.getTimeoutMs(method), rpc);
+        } catch (VirtTimeoutException e) {
+            abandon(e);
+            throw e;
+        }
+    }
+
+    private void abandon(VirtTimeoutException cause) {
+        synchronized (this) {
+            if (abandoned) {
+                return;
+            }
+            abandoned = true;
+        }
+        LogRecord rec = new LogRecord(Level.WARNING, "Abandoning the connection to {0}: {1}");
+        rec.setParameters(new Object[]{hypervisor, cause.getMessage()});
+        LOGGER.log(rec);
+        RpcCall.detach(new Runnable() {
+            public void run() {
+                try {
+                    connect.close();
+                } catch (VirtException e) {
+                    LOGGER.log(Level.FINE, "Failed to close the abandoned connection to " + hypervisor, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return whether a call timed out and the connection was given up
+     */
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    public long getVersion() throws VirtException {
+        return invoke("getVersion", new RpcCall<Long>() {
+            Long call() throws VirtException {
+                return connect.getVersion();
+            }
+        });
+    }
+
+    public int[] listDomains() throws VirtException {
+        return invoke("listDomains", new RpcCall<int[]>() {
+            int[] call() throws VirtException {
+                return connect.listDomains();
+            }
+        });
+    }
+
+    public String[] listDefinedDomains() throws VirtException {
+        return invoke("listDefinedDomains", new RpcCall<String[]>() {
+            String[] call() throws VirtException {
+                return connect.listDefinedDomains();
+            }
+        });
+    }
+
+    public IDomain domainLookupByName(final String c) throws VirtException {
+        return new InstrumentedDomainImpl(invoke("domainLookupByName", new RpcCall<IDomain>() {
+            IDomain call() throws VirtException {
+                return connect.domainLookupByName(c);
+            }
+        }), this);
+    }
+
+    public IDomain domainLookupByID(final int c) throws VirtException {
+        return new InstrumentedDomainImpl(invoke("domainLookupByID", new RpcCall<IDomain>() {
+            IDomain call() throws VirtException {
+                return connect.domainLookupByID(c);
+            }
+        }), this);
+    }
+
+    public void close() throws VirtException {
+        if (abandoned) {
+            return;
+        }
+        invoke("close", new RpcCall<Void>() {
+            Void call() throws VirtException {
+                connect.close();
+                return null;
+            }
+        });
+    }
+
+    public boolean isConnected() throws VirtException {
+        if (abandoned) {
+            return false;
+        }
+        return invoke("isConnected", new RpcCall<Boolean>() {
+            Boolean call() throws VirtException {
+                return connect.isConnected();
+            }
+        });
+    }
+
+    public HostStats getHostStats() throws VirtException {
+        return invoke("getHostStats", new RpcCall<HostStats>() {
+            HostStats call() throws VirtException {
+                return connect.getHostStats();
+            }
+        });
+    }
+}
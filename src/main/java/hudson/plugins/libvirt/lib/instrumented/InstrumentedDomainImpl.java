@@ -0,0 +1,147 @@
+package hudson.plugins.libvirt.lib.instrumented;
+
+import hudson.plugins.libvirt.lib.DomainStats;
+import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.IDomainSnapshot;
+import hudson.plugins.libvirt.lib.VirtException;
+
+/**
+ * Decorates an {@link IDomain} so that every call is counted, timed and bounded by the deadlines of its
+ * {@link InstrumentedConnectImpl}.
+ */
+public class InstrumentedDomainImpl implements IDomain {
+
+    private final IDomain domain;
+    private final InstrumentedConnectImpl connection;
+
+    InstrumentedDomainImpl(IDomain domain, InstrumentedConnectImpl connection) {
+        this.domain = domain;
+        this.connection = connection;
+    }
+
+    public String getName() throws VirtException {
+        return connection.invoke("getName", new RpcCall<String>() {
+            String call() throws VirtException {
+                return domain.getName();
+            }
+        });
+    }
+
+    public String[] snapshotListNames() throws VirtException {
+        return connection.invoke("snapshotListNames", new RpcCall<String[]>() {
+            String[] call() throws VirtException {
+                return domain.snapshotListNames();
+            }
+        });
+    }
+
+    public int snapshotNum() throws VirtException {
+        return connection.invoke("snapshotNum", new RpcCall<Integer>() {
+            Integer call() throws VirtException {
+                return domain.snapshotNum();
+            }
+        });
+    }
+
+    public IDomainSnapshot snapshotLookupByName(final String snapshotName) throws VirtException {
+        return connection.invoke("snapshotLookupByName", new RpcCall<IDomainSnapshot>() {
+            IDomainSnapshot call() throws VirtException {
+                return domain.snapshotLookupByName(snapshotName);
+            }
+        });
+    }
+
+    public void revertToSnapshot(final IDomainSnapshot snapshot) throws VirtException {
+        connection.invoke("revertToSnapshot", new RpcCall<Void>() {
+            Void call() throws VirtException {
+                domain.revertToSnapshot(snapshot);
+                return null;
+            }
+        });
+    }
+
+    public void shutdown() throws VirtException {
+        connection.invoke("shutdown", new RpcCall<Void>() {
+            Void call() throws VirtException {
+                domain.shutdown();
+                return null;
+            }
+        });
+    }
+
+    public boolean isRunningOrBlocked() throws VirtException {
+        return connection.invoke("isRunningOrBlocked", new RpcCall<Boolean>() {
+            Boolean call() throws VirtException {
+                return domain.isRunningOrBlocked();
+            }
+        });
+    }
+
+    public boolean isNotBlockedAndNotRunning() throws VirtException {
+        return connection.invoke("isNotBlockedAndNotRunning", new RpcCall<Boolean>() {
+            Boolean call() throws VirtException {
+                return domain.isNotBlockedAndNotRunning();
+            }
+        });
+    }
+
+    public boolean isShutOff() throws VirtException {
+        return connection.invoke("isShutOff", new RpcCall<Boolean>() {
+            Boolean call() throws VirtException {
+                return domain.isShutOff();
+            }
+        });
+    }
+
+    public void create() throws VirtException {
+        connection.invoke("create", new RpcCall<Void>() {
+            Void call() throws VirtException {
+                domain.create();
+                return null;
+            }
+        });
+    }
+
+    public void destroy() throws VirtException {
+        connection.invoke("destroy", new RpcCall<Void>() {
+            Void call() throws VirtException {
+                domain.destroy();
+                return null;
+            }
+        });
+    }
+
+    public void suspend() throws VirtException {
+        connection.invoke("suspend", new RpcCall<Void>() {
+            Void call() throws VirtException {
+                domain.suspend();
+                return null;
+            }
+        });
+    }
+
+    public void managedSave() throws VirtException {
+        connection.invoke("managedSave", new RpcCall<Void>() {
+            Void call() throws VirtException {
+                domain.managedSave();
+                return null;
+            }
+        });
+    }
+
+    public boolean hasManagedSaveImage() throws VirtException {
+        return connection.invoke("hasManagedSaveImage", new RpcCall<Boolean>() {
+            Boolean call() throws VirtException {
+                return domain.hasManagedSaveImage();
+            }
+        });
+    }
+
+    public DomainStats getStats() throws VirtException {
+        return connection.invoke("getStats", new RpcCall<DomainStats>() {
+            DomainStats call() throws VirtException {
+                return domain.getStats();
+            }
+        });
+    }
+}
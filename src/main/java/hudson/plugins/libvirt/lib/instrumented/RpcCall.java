@@ -0,0 +1,145 @@
+package hudson.plugins.libvirt.lib.instrumented;
+
+import hudson.plugins.libvirt.lib.VirtBusyException;
+import hudson.plugins.libvirt.lib.VirtException;
+import hudson.plugins.libvirt.lib.VirtTimeoutException;
+import hudson.plugins.libvirt.metrics.RpcMetrics;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single call to the hypervisor, recorded in {@link RpcMetrics}.
+ */
+abstract class RpcCall<T> {
+
+    /**
+     * The number of calls with a deadline that may run at the same time against one hypervisor.
+     */
+    public static final int MAX_CALLS_PER_HYPERVISOR = Integer.getInteger(RpcCall.class.getName() + ".maxCallsPerHypervisor", 16);
+
+    /**
+     * The number of calls that may wait for one of the {@link #MAX_CALLS_PER_HYPERVISOR} to finish.
+     */
+    public static final int MAX_QUEUED_CALLS_PER_HYPERVISOR = Integer.getInteger(RpcCall.class.getName() + ".maxQueuedCallsPerHypervisor", 1000);
+
+    /**
+     * Runs the calls that have a deadline, one pool per hypervisor. Neither libvirt nor the native Java client
+     * react to interrupts, so a call that hangs keeps its thread until the abandoned connection underneath it
+     * is closed. Bounding the pool of each host keeps one hung host from piling up threads, without letting
+     * it starve the others. Calls beyond the bound wait in line, within their own deadline.
+     */
+    private static final ConcurrentMap<String, ExecutorService> CALLS = new ConcurrentHashMap<String, ExecutorService>();
+
+    /**
+     * Closes abandoned connections, which must not wait behind the calls that hang on them.
+     */
+    private static final ExecutorService CLOSES = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "Libvirt close"));
+
+    abstract T call() throws VirtException;
+
+    static <T> T invoke(String hypervisor, String method, RpcCall<T> rpc) throws VirtException {
+        return invoke(hypervisor, method, 0, rpc);
+    }
+
+    /**
+     * @param timeoutMs how long to wait for the call, 0 to wait forever on the calling thread
+     * @throws VirtTimeoutException if the call did not complete in time, it is cancelled then
+     */
+    static <T> T invoke(String hypervisor, String method, long timeoutMs, final RpcCall<T> rpc) throws VirtException {
+        RpcMetrics.Operation operation = RpcMetrics.get(hypervisor, method);
+        long started = operation.begin();
+        boolean failed = true;
+        try {
+            T result = timeoutMs <= 0 ? rpc.call() : callWithin(hypervisor, method, timeoutMs, rpc);
+            failed = false;
+            return result;
+        } finally {
+            operation.end(started, failed);
+        }
+    }
+
+    /**
+     * Runs a call nobody waits for, such as closing a connection that already hung once.
+     */
+    static void detach(Runnable task) {
+        CLOSES.submit(task);
+    }
+
+    private static ExecutorService getPool(String hypervisor) {
+        ExecutorService pool = CALLS.get(hypervisor);
+        if (pool == null) {
+            ThreadPoolExecutor created = new ThreadPoolExecutor(MAX_CALLS_PER_HYPERVISOR, MAX_CALLS_PER_HYPERVISOR,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_CALLS_PER_HYPERVISOR),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "Libvirt call to " + hypervisor));
+            created.allowCoreThreadTimeOut(true);
+            pool = CALLS.putIfAbsent(hypervisor, created);
+            if (pool == null) {
+                pool = created;
+            } else {
+                created.shutdown();
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @throws VirtBusyException if the call could not start within its deadline because the pool of the
+     *                           hypervisor was busy with other calls
+     */
+    private static <T> T callWithin(String hypervisor, String method, long timeoutMs, final RpcCall<T> rpc) throws VirtException {
+        final AtomicBoolean running = new AtomicBoolean();
+        Future<T> future;
+        try {
+            future = getPool(hypervisor).submit(new Callable<T>() {
+                public T call() throws VirtException {
+                    running.set(true);
+                    return rpc.call();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new VirtBusyException(method + " on " + hypervisor + " refused, "
+                    + MAX_QUEUED_CALLS_PER_HYPERVISOR + " calls to it are already waiting");
+        }
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            if (!running.get()) {
+                throw new VirtBusyException(method + " on " + hypervisor + " did not start within " + timeoutMs
+                        + "ms, " + MAX_CALLS_PER_HYPERVISOR + " calls to it are still running");
+            }
+            throw new VirtTimeoutException(method + " on " + hypervisor + " did not complete within " + timeoutMs + "ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new VirtException(method + " on " + hypervisor + " was interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof VirtException) {
+                throw (VirtException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new VirtException(cause);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package hudson.plugins.libvirt.lib.jlibvirt;
 
 
 import com.nirima.libvirt.remote.ILibVirt;
+import hudson.plugins.libvirt.lib.HostStats;
 import hudson.plugins.libvirt.lib.IConnect;
 import hudson.plugins.libvirt.lib.IDomain;
 import hudson.plugins.libvirt.lib.VirtException;
@@ -84,6 +85,10 @@ public class JLibVirtConnectImpl implements IConnect {
         }
     }
 
+    public HostStats getHostStats() throws VirtException {
+        throw new VirtException("Host statistics are not supported by the native Java libvirt client");
+    }
+
     public ILibVirt getLibVirt() {
         return connect.getLibVirt();
     }
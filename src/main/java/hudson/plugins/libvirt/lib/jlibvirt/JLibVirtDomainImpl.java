@@ -2,6 +2,7 @@ package hudson.plugins.libvirt.lib.jlibvirt;
 
 import com.nirima.libvirt.Domain;
 import com.nirima.libvirt.DomainSnapshot;
+import hudson.plugins.libvirt.lib.DomainStats;
 import hudson.plugins.libvirt.lib.IDomain;
 import hudson.plugins.libvirt.lib.IDomainSnapshot;
 import hudson.plugins.libvirt.lib.VirtException;
@@ -84,6 +85,14 @@ public class JLibVirtDomainImpl implements IDomain {
         }
     }
 
+    public boolean isShutOff() throws VirtException {
+        try {
+            return domain.getState() == Domain.DomainState.SHUTOFF;
+        } catch (Exception e) {
+            throw new VirtException(e);
+        }
+    }
+
     public void create() throws VirtException {
         try {
             domain.create();
@@ -107,4 +116,16 @@ public class JLibVirtDomainImpl implements IDomain {
             throw new VirtException(e);
         }
     }
+
+    public void managedSave() throws VirtException {
+        throw new VirtException("Managed save is not supported by the native Java libvirt client");
+    }
+
+    public boolean hasManagedSaveImage() throws VirtException {
+        return false;
+    }
+
+    public DomainStats getStats() throws VirtException {
+        throw new VirtException("Domain statistics are not supported by the native Java libvirt client");
+    }
 }
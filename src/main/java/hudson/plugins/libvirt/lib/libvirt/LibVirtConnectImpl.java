@@ -1,11 +1,13 @@
 package hudson.plugins.libvirt.lib.libvirt;
 
 
+import hudson.plugins.libvirt.lib.HostStats;
 import hudson.plugins.libvirt.lib.IConnect;
 import hudson.plugins.libvirt.lib.IDomain;
 import hudson.plugins.libvirt.lib.VirtException;
 import org.libvirt.Connect;
 import org.libvirt.LibvirtException;
+import org.libvirt.NodeInfo;
 
 /**
  * Created by magnayn on 04/02/2014.
@@ -81,4 +83,13 @@ public class LibVirtConnectImpl implements IConnect {
             throw new VirtException(e);
         }
     }
+
+    public HostStats getHostStats() throws VirtException {
+        try {
+            NodeInfo info = connect.nodeInfo();
+            return new HostStats(info.cpus, info.memory, connect.getFreeMemory() / 1024);
+        } catch (LibvirtException e) {
+            throw new VirtException(e);
+        }
+    }
 }
@@ -1,17 +1,33 @@
 package hudson.plugins.libvirt.lib.libvirt;
 
+import hudson.plugins.libvirt.lib.DomainStats;
 import hudson.plugins.libvirt.lib.IDomain;
 import hudson.plugins.libvirt.lib.IDomainSnapshot;
 import hudson.plugins.libvirt.lib.VirtException;
 import org.libvirt.Domain;
+import org.libvirt.DomainBlockStats;
 import org.libvirt.DomainInfo;
+import org.libvirt.DomainInterfaceStats;
 import org.libvirt.DomainSnapshot;
 import org.libvirt.LibvirtException;
+import org.libvirt.MemoryStatistic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Created by magnayn on 04/02/2014.
  */
 public class LibVirtDomainImpl implements IDomain {
+    private static final Pattern TARGET_DEV = Pattern.compile("<target\\s[^>]*dev=['\"]([^'\"]+)['\"]");
+
+    /**
+     * The number of memory statistics libvirt knows about (VIR_DOMAIN_MEMORY_STAT_NR).
+     */
+    private static final int MEMORY_STAT_COUNT = 8;
+
     private final Domain domain;
     public LibVirtDomainImpl(Domain domain) {
         this.domain = domain;
@@ -82,6 +98,14 @@ public class LibVirtDomainImpl implements IDomain {
         }
     }
 
+    public boolean isShutOff() throws VirtException {
+        try {
+            return domain.getInfo().state == DomainInfo.DomainState.VIR_DOMAIN_SHUTOFF;
+        } catch (LibvirtException e) {
+            throw new VirtException(e);
+        }
+    }
+
     public void create() throws VirtException {
         try {
             if (domain.getInfo().state == DomainInfo.DomainState.VIR_DOMAIN_PAUSED){
@@ -109,4 +133,77 @@ public class LibVirtDomainImpl implements IDomain {
             throw new VirtException(e);
         }
     }
+
+    public void managedSave() throws VirtException {
+        try {
+            domain.managedSave();
+        } catch (LibvirtException e) {
+            throw new VirtException(e);
+        }
+    }
+
+    public boolean hasManagedSaveImage() throws VirtException {
+        try {
+            return domain.hasManagedSaveImage() == 1;
+        } catch (LibvirtException e) {
+            throw new VirtException(e);
+        }
+    }
+
+    public DomainStats getStats() throws VirtException {
+        try {
+            DomainInfo info = domain.getInfo();
+            String xml = domain.getXMLDesc(0);
+            long read = 0, written = 0, received = 0, sent = 0;
+            for (String disk : targetDevices(xml, "disk")) {
+                try {
+                    DomainBlockStats stats = domain.blockStats(disk);
+                    read += stats.rd_bytes;
+                    written += stats.wr_bytes;
+                } catch (LibvirtException e) {
+                    // e.g. an empty cdrom drive
+                }
+            }
+            for (String nic : targetDevices(xml, "interface")) {
+                try {
+                    DomainInterfaceStats stats = domain.interfaceStats(nic);
+                    received += stats.rx_bytes;
+                    sent += stats.tx_bytes;
+                } catch (LibvirtException e) {
+                    // interface without a host side device
+                }
+            }
+            return new DomainStats(info.cpuTime, info.nrVirtCpu, info.memory, balloon(info.memory), read, written, received, sent);
+        } catch (LibvirtException e) {
+            throw new VirtException(e);
+        }
+    }
+
+    private long balloon(long memoryKb) {
+        try {
+            for (MemoryStatistic stat : domain.memoryStats(MEMORY_STAT_COUNT)) {
+                if (stat.getTag() == MemoryStatistic.MemoryStatisticTags.VIR_DOMAIN_MEMORY_STAT_ACTUAL_BALLOON) {
+                    return stat.getValue();
+                }
+            }
+        } catch (LibvirtException e) {
+            // no balloon driver in the guest
+        }
+        return memoryKb;
+    }
+
+    /**
+     * Returns the target device names of the given device type in a domain description, e.g. vda or vnet0.
+     */
+    private static List<String> targetDevices(String xml, String deviceType) {
+        List<String> devices = new ArrayList<String>();
+        Matcher section = Pattern.compile("<" + deviceType + "\\b.*?</" + deviceType + ">", Pattern.DOTALL).matcher(xml);
+        while (section.find()) {
+            Matcher target = TARGET_DEV.matcher(section.group());
+            if (target.find()) {
+                devices.add(target.group(1));
+            }
+        }
+        return devices;
+    }
 }
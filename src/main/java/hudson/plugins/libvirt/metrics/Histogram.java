@@ -0,0 +1,89 @@
+package hudson.plugins.libvirt.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed bucket boundaries, in milliseconds.
+ * Percentiles are estimated as the upper bound of the bucket they fall into.
+ */
+public class Histogram {
+
+    /**
+     * Upper bounds (inclusive) of the buckets. Values above the last bound go to an overflow bucket.
+     */
+    private static final long[] BOUNDS = {
+            5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000
+    };
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long millis) {
+        int i = 0;
+        while (i < BOUNDS.length && millis > BOUNDS[i]) {
+            i++;
+        }
+        buckets.incrementAndGet(i);
+        count.incrementAndGet();
+        sum.addAndGet(millis);
+        long current = max.get();
+        while (millis > current && !max.compareAndSet(current, millis)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * @param quantile a value between 0 and 1
+     * @return the estimated value at the given quantile, 0 if nothing was recorded
+     */
+    public long getPercentile(double quantile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * n);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public static long[] getBounds() {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * @return the number of values per bucket, the last entry being the overflow bucket
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+}
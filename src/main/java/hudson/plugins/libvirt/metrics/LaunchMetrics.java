@@ -0,0 +1,78 @@
+package hudson.plugins.libvirt.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the durations of the launch, shutdown and revert phases of the libvirt slaves,
+ * one {@link Histogram} per hypervisor, VM and phase.
+ */
+public final class LaunchMetrics {
+
+    private static final ConcurrentMap<String, Series> SERIES = new ConcurrentHashMap<String, Series>();
+
+    private LaunchMetrics() {
+    }
+
+    public static void record(String hypervisor, String vm, String phase, long millis) {
+        String key = hypervisor + "|" + vm + "|" + phase;
+        Series series = SERIES.get(key);
+        if (series == null) {
+            Series created = new Series(hypervisor, vm, phase);
+            series = SERIES.putIfAbsent(key, created);
+            if (series == null) {
+                series = created;
+            }
+        }
+        series.getHistogram().record(millis);
+    }
+
+    /**
+     * @param hypervisor the hypervisor description
+     * @param vm         the name of the vm
+     * @param phase      the phase
+     * @return the histogram of the phase, or null if it never ran
+     */
+    public static Histogram get(String hypervisor, String vm, String phase) {
+        Series series = SERIES.get(hypervisor + "|" + vm + "|" + phase);
+        return series == null ? null : series.getHistogram();
+    }
+
+    public static List<Series> getSeries() {
+        return new ArrayList<Series>(SERIES.values());
+    }
+
+    /**
+     * The durations of one phase of one VM.
+     */
+    public static final class Series {
+        private final String hypervisor;
+        private final String vm;
+        private final String phase;
+        private final Histogram histogram = new Histogram();
+
+        Series(String hypervisor, String vm, String phase) {
+            this.hypervisor = hypervisor;
+            this.vm = vm;
+            this.phase = phase;
+        }
+
+        public String getHypervisor() {
+            return hypervisor;
+        }
+
+        public String getVm() {
+            return vm;
+        }
+
+        public String getPhase() {
+            return phase;
+        }
+
+        public Histogram getHistogram() {
+            return histogram;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package hudson.plugins.libvirt.metrics;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Renders {@link LaunchMetrics} and {@link RpcMetrics} as JSON or in the Prometheus text format.
+ */
+public final class MetricsExporter {
+
+    private MetricsExporter() {
+    }
+
+    public static JSONObject toJSON() {
+        JSONArray launches = new JSONArray();
+        for (LaunchMetrics.Series series : LaunchMetrics.getSeries()) {
+            JSONObject o = summarize(series.getHistogram());
+            o.put("hypervisor", series.getHypervisor());
+            o.put("vm", series.getVm());
+            o.put("phase", series.getPhase());
+            launches.add(o);
+        }
+        JSONArray rpc = new JSONArray();
+        for (RpcMetrics.Operation operation : RpcMetrics.getOperations()) {
+            JSONObject o = summarize(operation.getLatency());
+            o.put("hypervisor", operation.getHypervisor());
+            o.put("method", operation.getMethod());
+            o.put("errors", operation.getErrors());
+            o.put("inFlight", operation.getInFlight());
+            rpc.add(o);
+        }
+        JSONObject metrics = new JSONObject();
+        metrics.put("launch", launches);
+        metrics.put("rpc", rpc);
+        return metrics;
+    }
+
+    private static JSONObject summarize(Histogram histogram) {
+        JSONObject o = new JSONObject();
+        o.put("count", histogram.getCount());
+        o.put("mean", histogram.getMean());
+        o.put("p50", histogram.getPercentile(0.5));
+        o.put("p90", histogram.getPercentile(0.9));
+        o.put("p99", histogram.getPercentile(0.99));
+        o.put("max", histogram.getMax());
+        return o;
+    }
+
+    public static String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+
+        out.append("# TYPE libvirt_launch_phase_milliseconds histogram\n");
+        for (LaunchMetrics.Series series : LaunchMetrics.getSeries()) {
+            String labels = "hypervisor=\"" + escape(series.getHypervisor()) + "\",vm=\"" + escape(series.getVm())
+                    + "\",phase=\"" + escape(series.getPhase()) + "\"";
+            appendHistogram(out, "libvirt_launch_phase_milliseconds", labels, series.getHistogram());
+        }
+
+        out.append("# TYPE libvirt_rpc_calls_total counter\n");
+        for (RpcMetrics.Operation operation : RpcMetrics.getOperations()) {
+            out.append("libvirt_rpc_calls_total{").append(labels(operation)).append("} ").append(operation.getCalls()).append('\n');
+        }
+        out.append("# TYPE libvirt_rpc_errors_total counter\n");
+        for (RpcMetrics.Operation operation : RpcMetrics.getOperations()) {
+            out.append("libvirt_rpc_errors_total{").append(labels(operation)).append("} ").append(operation.getErrors()).append('\n');
+        }
+        out.append("# TYPE libvirt_rpc_in_flight gauge\n");
+        for (RpcMetrics.Operation operation : RpcMetrics.getOperations()) {
+            out.append("libvirt_rpc_in_flight{").append(labels(operation)).append("} ").append(operation.getInFlight()).append('\n');
+        }
+        out.append("# TYPE libvirt_rpc_latency_milliseconds histogram\n");
+        for (RpcMetrics.Operation operation : RpcMetrics.getOperations()) {
+            appendHistogram(out, "libvirt_rpc_latency_milliseconds", labels(operation), operation.getLatency());
+        }
+        return out.toString();
+    }
+
+    private static String labels(RpcMetrics.Operation operation) {
+        return "hypervisor=\"" + escape(operation.getHypervisor()) + "\",method=\"" + escape(operation.getMethod()) + "\"";
+    }
+
+    private static void appendHistogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        long[] bounds = Histogram.getBounds();
+        long[] counts = histogram.getBucketCounts();
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i];
+            out.append(name).append("_bucket{").append(labels).append(",le=\"").append(bounds[i]).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(histogram.getCount()).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ").append(histogram.getSum()).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(histogram.getCount()).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
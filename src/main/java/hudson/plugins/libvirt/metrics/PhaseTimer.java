@@ -0,0 +1,73 @@
+package hudson.plugins.libvirt.metrics;
+
+import hudson.model.TaskListener;
+
+/**
+ * Times consecutive phases of an operation on a VM and records them in {@link LaunchMetrics}.
+ * Starting a phase ends the previous one; a phase may be entered several times, e.g. once per
+ * launch attempt. Spans that run across phases are recorded with {@link #record(String, long)}.
+ */
+public class PhaseTimer {
+
+    private final String hypervisor;
+    private final String vm;
+    private final long started = System.currentTimeMillis();
+    private final StringBuilder summary = new StringBuilder();
+
+    private String phase;
+    private long phaseStarted;
+
+    public PhaseTimer(String hypervisor, String vm) {
+        this.hypervisor = hypervisor;
+        this.vm = vm;
+    }
+
+    public void begin(String phase) {
+        end();
+        this.phase = phase;
+        this.phaseStarted = System.currentTimeMillis();
+    }
+
+    public void end() {
+        if (phase == null) {
+            return;
+        }
+        long millis = System.currentTimeMillis() - phaseStarted;
+        LaunchMetrics.record(hypervisor, vm, phase, millis);
+        if (summary.length() > 0) {
+            summary.append(", ");
+        }
+        summary.append(phase).append(' ').append(millis).append("ms");
+        phase = null;
+    }
+
+    /**
+     * Records a span that runs across the consecutive phases, e.g. from the first connection attempt until
+     * the slave is online. The current phase keeps running.
+     *
+     * @param phase the name of the span
+     * @param since when the span started
+     */
+    public void record(String phase, long since) {
+        long millis = System.currentTimeMillis() - since;
+        LaunchMetrics.record(hypervisor, vm, phase, millis);
+        if (summary.length() > 0) {
+            summary.append(", ");
+        }
+        summary.append(phase).append(' ').append(millis).append("ms");
+    }
+
+    /**
+     * Ends the current phase, records the time since the timer was created as <code>total</code>
+     * and prints the phases to the listener.
+     *
+     * @param total    the name under which the overall duration is recorded
+     * @param listener where the phases are printed
+     */
+    public void finish(String total, TaskListener listener) {
+        end();
+        long millis = System.currentTimeMillis() - started;
+        LaunchMetrics.record(hypervisor, vm, total, millis);
+        listener.getLogger().println("Timings for \"" + vm + "\": " + total + " " + millis + "ms (" + summary + ")");
+    }
+}
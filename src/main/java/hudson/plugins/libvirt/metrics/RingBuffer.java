@@ -0,0 +1,64 @@
+package hudson.plugins.libvirt.metrics;
+
+/**
+ * Fixed-size series of timestamped samples; once full, each new sample overwrites the oldest one.
+ */
+public class RingBuffer {
+
+    private final long[] times;
+    private final double[] values;
+    private int next;
+    private int size;
+
+    public RingBuffer(int capacity) {
+        this.times = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    public synchronized void add(long time, double value) {
+        times[next] = time;
+        values[next] = value;
+        next = (next + 1) % values.length;
+        if (size < values.length) {
+            size++;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the samples, oldest first
+     */
+    public synchronized double[] getValues() {
+        double[] result = new double[size];
+        int first = (next - size + values.length) % values.length;
+        for (int i = 0; i < size; i++) {
+            result[i] = values[(first + i) % values.length];
+        }
+        return result;
+    }
+
+    /**
+     * @return the latest sample, 0 if there is none
+     */
+    public synchronized double getLast() {
+        return size == 0 ? 0 : values[(next - 1 + values.length) % values.length];
+    }
+
+    /**
+     * @return the time of the latest sample, 0 if there is none
+     */
+    public synchronized long getLastTime() {
+        return size == 0 ? 0 : times[(next - 1 + values.length) % values.length];
+    }
+
+    public synchronized double getMax() {
+        double max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,101 @@
+package hudson.plugins.libvirt.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Call counts, errors, calls in flight and latencies of the libvirt calls, per hypervisor and method.
+ */
+public final class RpcMetrics {
+
+    private static final ConcurrentMap<String, Operation> OPERATIONS = new ConcurrentHashMap<String, Operation>();
+
+    private RpcMetrics() {
+    }
+
+    public static Operation get(String hypervisor, String method) {
+        String key = hypervisor + "|" + method;
+        Operation operation = OPERATIONS.get(key);
+        if (operation == null) {
+            Operation created = new Operation(hypervisor, method);
+            operation = OPERATIONS.putIfAbsent(key, created);
+            if (operation == null) {
+                operation = created;
+            }
+        }
+        return operation;
+    }
+
+    public static List<Operation> getOperations() {
+        return new ArrayList<Operation>(OPERATIONS.values());
+    }
+
+    /**
+     * The statistics of one method on one hypervisor.
+     */
+    public static final class Operation {
+        private final String hypervisor;
+        private final String method;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Histogram latency = new Histogram();
+
+        Operation(String hypervisor, String method) {
+            this.hypervisor = hypervisor;
+            this.method = method;
+        }
+
+        /**
+         * Marks the start of a call.
+         *
+         * @return the start time, to be handed to {@link #end(long, boolean)}
+         */
+        public long begin() {
+            inFlight.incrementAndGet();
+            return System.currentTimeMillis();
+        }
+
+        public void end(long started, boolean failed) {
+            inFlight.decrementAndGet();
+            calls.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            latency.record(System.currentTimeMillis() - started);
+        }
+
+        public String getHypervisor() {
+            return hypervisor;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public double getErrorRate() {
+            long n = calls.get();
+            return n == 0 ? 0 : (double) errors.get() / n;
+        }
+
+        public Histogram getLatency() {
+            return latency;
+        }
+    }
+}
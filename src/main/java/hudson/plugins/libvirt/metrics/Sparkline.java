@@ -0,0 +1,37 @@
+package hudson.plugins.libvirt.metrics;
+
+import java.util.Locale;
+
+/**
+ * Renders a series of samples as a small inline SVG line chart.
+ */
+public final class Sparkline {
+
+    public static final int WIDTH = 120;
+    public static final int HEIGHT = 20;
+
+    private Sparkline() {
+    }
+
+    /**
+     * @param values the samples, oldest first
+     * @param max    the value at the top of the chart, 0 or less to scale to the largest sample
+     * @return the SVG markup
+     */
+    public static String svg(double[] values, double max) {
+        if (max <= 0) {
+            for (double value : values) {
+                max = Math.max(max, value);
+            }
+        }
+        StringBuilder points = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            double x = values.length == 1 ? WIDTH : i * (double) WIDTH / (values.length - 1);
+            double y = max <= 0 ? HEIGHT : HEIGHT - Math.min(values[i], max) / max * (HEIGHT - 1);
+            points.append(String.format(Locale.ENGLISH, "%.1f,%.1f ", x, y));
+        }
+        return "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + WIDTH + "\" height=\"" + HEIGHT + "\">"
+                + "<polyline fill=\"none\" stroke=\"#4a90d9\" stroke-width=\"1\" points=\"" + points.toString().trim() + "\"/>"
+                + "</svg>";
+    }
+}
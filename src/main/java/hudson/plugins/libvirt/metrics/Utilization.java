@@ -0,0 +1,65 @@
+package hudson.plugins.libvirt.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resource usage history of a host or a domain: one {@link RingBuffer} per metric.
+ */
+public class Utilization {
+
+    public static final String CPU = "cpu";
+    public static final String MEMORY = "memory";
+    public static final String DISK_READ = "diskRead";
+    public static final String DISK_WRITE = "diskWrite";
+    public static final String NET_RX = "netRx";
+    public static final String NET_TX = "netTx";
+
+    private static final String[] METRICS = {CPU, MEMORY, DISK_READ, DISK_WRITE, NET_RX, NET_TX};
+
+    private final String name;
+    private final Map<String, RingBuffer> series = new LinkedHashMap<String, RingBuffer>();
+
+    /**
+     * @param name     the host or domain the usage belongs to
+     * @param capacity the number of samples kept per metric
+     */
+    public Utilization(String name, int capacity) {
+        this.name = name;
+        for (String metric : METRICS) {
+            series.put(metric, new RingBuffer(capacity));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records one sample of every metric.
+     *
+     * @param time       the time of the sample
+     * @param cpu        CPU usage in percent of the available CPUs
+     * @param memory     memory usage in percent
+     * @param diskRead   bytes read per second
+     * @param diskWrite  bytes written per second
+     * @param netRx      bytes received per second
+     * @param netTx      bytes sent per second
+     */
+    public void record(long time, double cpu, double memory, double diskRead, double diskWrite, double netRx, double netTx) {
+        series.get(CPU).add(time, cpu);
+        series.get(MEMORY).add(time, memory);
+        series.get(DISK_READ).add(time, diskRead);
+        series.get(DISK_WRITE).add(time, diskWrite);
+        series.get(NET_RX).add(time, netRx);
+        series.get(NET_TX).add(time, netTx);
+    }
+
+    public RingBuffer get(String metric) {
+        return series.get(metric);
+    }
+
+    public long getLastTime() {
+        return series.get(CPU).getLastTime();
+    }
+}
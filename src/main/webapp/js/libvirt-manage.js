@@ -8,3 +8,108 @@ function stop(theId) {
     var form = document.getElementById('control');
     form.submit();
 }
+
+/*
+ * Domain table of the hypervisor page: rows are loaded a page at a time from the
+ * domain inventory and then polled for changes.
+ */
+var domainTable = {start: 0, limit: 50, version: 0, total: 0, timer: null};
+
+function loadDomains(url, limit) {
+    domainTable.url = url;
+    domainTable.limit = limit;
+    domainTable.version = 0;
+    document.getElementById('domains').innerHTML = '';
+    pollDomains();
+}
+
+function domainPage(direction) {
+    var start = domainTable.start + direction * domainTable.limit;
+    if (start < 0 || start >= domainTable.total) {
+        return;
+    }
+    domainTable.start = start;
+    loadDomains(domainTable.url, domainTable.limit);
+}
+
+function pollDomains() {
+    if (domainTable.timer != null) {
+        clearTimeout(domainTable.timer);
+    }
+    new Ajax.Request(domainTable.url + '?start=' + domainTable.start + '&limit=' + domainTable.limit
+            + '&since=' + domainTable.version, {
+        method: 'get',
+        onSuccess: function (rsp) {
+            var data = rsp.responseJSON;
+            if (domainTable.version > 0 && (data.total != domainTable.total || data.reload)) {
+                // domains came or went, the page boundaries moved, or the removals since the last poll are forgotten
+                domainTable.total = data.total;
+                loadDomains(domainTable.url, domainTable.limit);
+                return;
+            }
+            domainTable.total = data.total;
+            domainTable.version = data.version;
+            for (var i = 0; i < data.rows.length; i++) {
+                renderDomain(data.rows[i]);
+            }
+            for (var j = 0; j < data.removed.length; j++) {
+                var gone = document.getElementById('domain-' + data.removed[j]);
+                if (gone != null) {
+                    gone.parentNode.removeChild(gone);
+                }
+            }
+            var last = Math.min(domainTable.start + domainTable.limit, data.total);
+            document.getElementById('domainsPage').innerHTML = (data.total == 0 ? 0 : domainTable.start + 1) + '-' + last + ' / ' + data.total;
+            document.getElementById('domainsStatus').innerHTML = data.refreshedAt == 0
+                    ? 'Loading domains...' : 'As of ' + new Date(data.refreshedAt).toLocaleTimeString();
+            domainTable.timer = setTimeout(pollDomains, data.refreshedAt == 0 ? 1000 : 5000);
+        },
+        onFailure: function () {
+            domainTable.timer = setTimeout(pollDomains, 10000);
+        }
+    });
+}
+
+function renderDomain(domain) {
+    var row = document.getElementById('domain-' + domain.name);
+    if (row == null) {
+        row = document.createElement('tr');
+        row.id = 'domain-' + domain.name;
+        insertDomainRow(row, domain.name);
+    }
+    row.innerHTML = '';
+    var select = document.createElement('input');
+    select.type = 'checkbox';
+    select.name = 'vmName';
+    select.value = domain.name;
+    select.setAttribute('form', 'batch');
+    appendCell(row, select);
+    appendCell(row, document.createTextNode(domain.name));
+    appendCell(row, document.createTextNode(String(domain.running)));
+    appendCell(row, document.createTextNode(domain.snapshots.join(', ')));
+    var button = document.createElement('input');
+    button.type = 'button';
+    button.value = 'stop';
+    button.onclick = function () {
+        stop(domain.name);
+    };
+    appendCell(row, button);
+}
+
+function insertDomainRow(row, name) {
+    var body = document.getElementById('domains');
+    var rows = body.getElementsByTagName('tr');
+    for (var i = 0; i < rows.length; i++) {
+        if (rows[i].id > row.id) {
+            body.insertBefore(row, rows[i]);
+            return;
+        }
+    }
+    body.appendChild(row);
+}
+
+function appendCell(row, content) {
+    var cell = document.createElement('td');
+    cell.appendChild(content);
+    row.appendChild(cell);
+}
@@ -0,0 +1,113 @@
+package hudson.plugins.libvirt;
+
+import junit.framework.TestCase;
+
+public class CircuitBreakerTest extends TestCase {
+
+    /**
+     * A breaker on a clock the test moves.
+     */
+    private static final class Breaker extends CircuitBreaker {
+        long time = 1000000;
+
+        @Override
+        long now() {
+            return time;
+        }
+    }
+
+    private Breaker breaker;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        breaker = new Breaker();
+    }
+
+    private void open() {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    public void testOpensAfterConsecutiveFailures() {
+        open();
+        assertFalse(breaker.allowRequest());
+        assertFalse(breaker.isAvailable());
+        assertEquals(CircuitBreaker.OPEN_SECONDS * 1000L, breaker.getRetryInMs());
+        assertEquals(breaker.time, breaker.getOpenedAt());
+    }
+
+    public void testSuccessResetsTheFailureCount() {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.recordFailure();
+        }
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getOpenedAt());
+    }
+
+    public void testHalfOpenLetsOneProbeThrough() {
+        open();
+        breaker.time += CircuitBreaker.OPEN_SECONDS * 1000L;
+        assertTrue(breaker.isAvailable());
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.isAvailable());
+        assertFalse(breaker.allowRequest());
+        assertEquals(0, breaker.getRetryInMs());
+    }
+
+    public void testSuccessfulProbeCloses() {
+        open();
+        breaker.time += CircuitBreaker.OPEN_SECONDS * 1000L;
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    public void testFailedProbeReopensForTwiceAsLong() {
+        open();
+        long openMs = CircuitBreaker.OPEN_SECONDS * 1000L;
+        long openedAt = breaker.getOpenedAt();
+        for (int i = 0; i < 3; i++) {
+            breaker.time += breaker.getRetryInMs();
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+            openMs = Math.min(openMs * 2, CircuitBreaker.MAX_OPEN_SECONDS * 1000L);
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+            assertEquals(openMs, breaker.getRetryInMs());
+            assertEquals(openedAt, breaker.getOpenedAt());
+            breaker.time += openMs - 1;
+            assertFalse(breaker.allowRequest());
+        }
+    }
+
+    public void testOpenTimeIsCapped() {
+        open();
+        for (int i = 0; i < 30; i++) {
+            breaker.time += breaker.getRetryInMs();
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+        assertEquals(CircuitBreaker.MAX_OPEN_SECONDS * 1000L, breaker.getRetryInMs());
+    }
+
+    public void testProbeAfterSuccessStartsOverWithTheShortOpenTime() {
+        open();
+        breaker.time += breaker.getRetryInMs();
+        breaker.allowRequest();
+        breaker.recordFailure();
+        breaker.time += breaker.getRetryInMs();
+        breaker.allowRequest();
+        breaker.recordSuccess();
+        open();
+        assertEquals(CircuitBreaker.OPEN_SECONDS * 1000L, breaker.getRetryInMs());
+    }
+}
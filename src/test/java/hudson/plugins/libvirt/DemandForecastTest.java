@@ -0,0 +1,82 @@
+package hudson.plugins.libvirt;
+
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.util.Calendar;
+
+public class DemandForecastTest extends HudsonTestCase {
+
+    private static final long SLOT_MS = DemandForecast.SLOT_MINUTES * 60 * 1000L;
+    private static final long WEEK_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private long t0;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2015, Calendar.JANUARY, 14, 10, 0);
+        t0 = calendar.getTimeInMillis();
+    }
+
+    public void testFoldIsMovingAverage() {
+        DemandForecast.LabelDemand demand = new DemandForecast.LabelDemand("vm", t0);
+        demand.fold(5, 10, t0);
+        assertEquals(3.0, demand.getExpected(5), 1e-9);
+        demand.fold(5, 10, t0);
+        assertEquals(5.1, demand.getExpected(5), 1e-9);
+        demand.fold(5, 0, t0);
+        assertEquals(3.57, demand.getExpected(5), 1e-9);
+        assertEquals(-1, demand.getErrorPercent());
+    }
+
+    public void testErrorIsScoredAfterTheFirstWeek() {
+        DemandForecast.LabelDemand demand = new DemandForecast.LabelDemand("vm", t0);
+        demand.fold(5, 10, t0);
+        demand.fold(5, 10, t0 + WEEK_MS);
+        assertEquals(1, demand.getScoredSlots());
+        assertEquals(70, demand.getErrorPercent());
+    }
+
+    public void testArrivalsAreFoldedIntoTheirSlot() {
+        DemandForecast forecast = new DemandForecast();
+        forecast.roll(t0);
+        arrive(forecast, "vm", 10);
+        forecast.roll(t0 + SLOT_MS);
+        assertEquals(3.0, forecast.getExpected("vm", t0), 1e-9);
+        assertEquals(0.0, forecast.getExpected("vm", t0 + SLOT_MS), 1e-9);
+        assertEquals(0.0, forecast.getExpected("other", t0), 1e-9);
+    }
+
+    public void testSkippedSlotsDecay() {
+        DemandForecast forecast = new DemandForecast();
+        forecast.roll(t0);
+        arrive(forecast, "vm", 10);
+        forecast.roll(t0 + SLOT_MS);
+
+        // the slot of t0 is not between these two rolls
+        forecast.roll(t0 + WEEK_MS - SLOT_MS);
+        assertEquals(3.0, forecast.getExpected("vm", t0), 1e-9);
+        // the slot of t0 is skipped by this one
+        forecast.roll(t0 + WEEK_MS + SLOT_MS);
+        assertEquals(2.1, forecast.getExpected("vm", t0), 1e-9);
+    }
+
+    public void testAWeekWithoutRollsDecaysEverySlot() {
+        DemandForecast forecast = new DemandForecast();
+        forecast.roll(t0);
+        arrive(forecast, "vm", 10);
+        forecast.roll(t0 + SLOT_MS);
+        arrive(forecast, "vm", 10);
+        forecast.roll(t0 + 2 * WEEK_MS + 3 * SLOT_MS);
+        assertEquals(2.1, forecast.getExpected("vm", t0), 1e-9);
+        assertEquals(3.0, forecast.getExpected("vm", t0 + SLOT_MS), 1e-9);
+    }
+
+    private static void arrive(DemandForecast forecast, String label, int count) {
+        for (int i = 0; i < count; i++) {
+            forecast.recordArrival(label);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package hudson.plugins.libvirt;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class LaunchQuarantineTest extends TestCase {
+
+    private LaunchQuarantine quarantine;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        quarantine = new LaunchQuarantine("test");
+    }
+
+    private long coolOffSeconds(String vmName) {
+        for (LaunchQuarantine.Entry entry : quarantine.getEntries()) {
+            if (entry.getVmName().equals(vmName)) {
+                return (entry.getCoolOffUntil() - entry.getLastFailure()) / 1000;
+            }
+        }
+        fail("No entry for " + vmName);
+        return -1;
+    }
+
+    public void testCoolOffDoublesWithEveryFailure() {
+        long expected = LaunchQuarantine.COOL_OFF_SECONDS;
+        for (int i = 1; i < LaunchQuarantine.QUARANTINE_AFTER; i++) {
+            quarantine.recordFailure("vm", "broken");
+            assertTrue(quarantine.isBlocked("vm"));
+            assertEquals(Math.min(expected, LaunchQuarantine.MAX_COOL_OFF_SECONDS), coolOffSeconds("vm"));
+            expected *= 2;
+        }
+    }
+
+    public void testQuarantinedAfterConsecutiveFailures() {
+        for (int i = 0; i < LaunchQuarantine.QUARANTINE_AFTER; i++) {
+            quarantine.recordFailure("vm", "failure " + i);
+        }
+        List<LaunchQuarantine.Entry> entries = quarantine.getEntries();
+        assertEquals(1, entries.size());
+        assertTrue(entries.get(0).isQuarantined());
+        assertEquals(LaunchQuarantine.QUARANTINE_AFTER, entries.get(0).getFailures());
+        assertEquals("failure " + (LaunchQuarantine.QUARANTINE_AFTER - 1), entries.get(0).getReason());
+        assertTrue(quarantine.isBlocked("vm"));
+    }
+
+    public void testSuccessClearsTheRecord() {
+        quarantine.recordFailure("vm", "broken");
+        quarantine.recordFailure("vm", "broken");
+        quarantine.recordSuccess("vm");
+        assertFalse(quarantine.isBlocked("vm"));
+        assertTrue(quarantine.getEntries().isEmpty());
+        quarantine.recordFailure("vm", "broken");
+        assertEquals(LaunchQuarantine.COOL_OFF_SECONDS, coolOffSeconds("vm"));
+    }
+
+    public void testRelease() {
+        for (int i = 0; i < LaunchQuarantine.QUARANTINE_AFTER; i++) {
+            quarantine.recordFailure("vm", "broken");
+        }
+        assertTrue(quarantine.release("vm"));
+        assertFalse(quarantine.isBlocked("vm"));
+        assertFalse(quarantine.release("vm"));
+    }
+
+    public void testEntriesAreSortedByFailures() {
+        quarantine.recordFailure("once", "broken");
+        quarantine.recordFailure("twice", "broken");
+        quarantine.recordFailure("twice", "broken");
+        List<LaunchQuarantine.Entry> entries = quarantine.getEntries();
+        assertEquals("twice", entries.get(0).getVmName());
+        assertEquals("once", entries.get(1).getVmName());
+        assertFalse(quarantine.isBlocked("never"));
+    }
+}
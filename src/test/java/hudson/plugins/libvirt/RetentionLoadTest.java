@@ -0,0 +1,201 @@
+package hudson.plugins.libvirt;
+
+import hudson.model.Computer;
+import hudson.model.Descriptor;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.model.labels.LabelAtom;
+import hudson.plugins.libvirt.lib.sim.SimConnectImpl;
+import hudson.plugins.libvirt.lib.sim.SimHypervisor;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+import org.jvnet.hudson.test.HudsonTestCase;
+import org.jvnet.hudson.test.SleepBuilder;
+import org.jvnet.hudson.test.TestExtension;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the launch, retention and snapshot flows against a simulated hypervisor.
+ * <p>
+ * Defines many libvirt slaves under a {@link LibvirtRetentionStrategy}, submits a burst of labeled jobs and
+ * reports queue wait, boot-to-online and throughput. Excluded from the default build, run it with
+ * <code>mvn -Ploadtest test</code>. The scenario is tuned with system properties:
+ * <code>loadtest.slaves</code>, <code>loadtest.jobs</code>, <code>loadtest.capacity</code>,
+ * <code>loadtest.bootMs</code>, <code>loadtest.latencyMicros</code>, <code>loadtest.buildMs</code>,
+ * <code>loadtest.maxBoots</code>, <code>loadtest.bootInterval</code>.
+ * Reports are written to <code>target/loadtest</code>.
+ */
+public class RetentionLoadTest extends HudsonTestCase {
+
+    private static final int SLAVES = Integer.getInteger("loadtest.slaves", 200);
+    private static final int JOBS = Integer.getInteger("loadtest.jobs", 100);
+    private static final int CAPACITY = Integer.getInteger("loadtest.capacity", 10);
+    private static final long BOOT_MS = Long.getLong("loadtest.bootMs", 2000);
+    private static final long LATENCY_MICROS = Long.getLong("loadtest.latencyMicros", 1000);
+    private static final long BUILD_MS = Long.getLong("loadtest.buildMs", 500);
+    private static final int MAX_BOOTS = Integer.getInteger("loadtest.maxBoots", 0);
+    private static final int BOOT_INTERVAL = Integer.getInteger("loadtest.bootInterval", 0);
+
+    private static final Map<String, Long> LAUNCH_STARTED = new ConcurrentHashMap<String, Long>();
+    private static final List<Long> BOOT_TO_ONLINE = Collections.synchronizedList(new ArrayList<Long>());
+
+    public void testColdBoot() throws Exception {
+        runScenario("cold-boot", "shutdown", "", "");
+    }
+
+    public void testManagedSave() throws Exception {
+        runScenario("managed-save", "managedsave", "", "");
+    }
+
+    public void testRevertOnShutdown() throws Exception {
+        runScenario("revert-on-shutdown", "shutdown", "clean", "");
+    }
+
+    public void testRevertBeforeJob() throws Exception {
+        runScenario("revert-before-job", "shutdown", "", "clean");
+    }
+
+    @SuppressWarnings("unchecked")
+    private void runScenario(String name, String shutdownMethod, String snapshotName, String beforeJobSnapshotName) throws Exception {
+        SimHypervisor.reset();
+        LAUNCH_STARTED.clear();
+        BOOT_TO_ONLINE.clear();
+
+        String sysUrl = "system?domains=" + SLAVES + "&bootMs=" + BOOT_MS + "&latencyMicros=" + LATENCY_MICROS
+                + "&shutdownMs=" + BOOT_MS / 4 + "&snapshots=clean";
+        Hypervisor hypervisor = new Hypervisor("QEMU", "loadtest", 22, sysUrl, "jenkins", CAPACITY, false, null, "keep", 0, MAX_BOOTS, BOOT_INTERVAL, 0, null);
+        String simUri = "sim://loadtest/" + sysUrl;
+        hypervisor.setConnection(new SimConnectImpl(simUri));
+        jenkins.clouds.add(hypervisor);
+
+        for (int i = 0; i < SLAVES; i++) {
+            String vmName = "vm-" + i;
+            jenkins.addNode(new VirtualMachineSlave("slave-" + i, "", createTmpDir().getPath(), "1", Node.Mode.EXCLUSIVE,
+                    "load", null, new SimReadyLauncher(createComputerLauncher(null), simUri, vmName, BOOT_MS * 10),
+                    (RetentionStrategy) new LibvirtRetentionStrategy(1), Collections.<NodeProperty<?>>emptyList(),
+                    hypervisor.getHypervisorDescription(), vmName, snapshotName, 0, shutdownMethod, false, 10,
+                    beforeJobSnapshotName, 30, 0, 0, 0, 0, 0));
+        }
+
+        List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+        for (int i = 0; i < JOBS; i++) {
+            FreeStyleProject project = createFreeStyleProject("load-" + i);
+            project.setAssignedLabel(new LabelAtom("load"));
+            project.getBuildersList().add(new SleepBuilder(BUILD_MS));
+            projects.add(project);
+        }
+
+        long submitted = System.currentTimeMillis();
+        List<Future<FreeStyleBuild>> builds = new ArrayList<Future<FreeStyleBuild>>();
+        for (FreeStyleProject project : projects) {
+            builds.add(project.scheduleBuild2(0));
+        }
+
+        // the retention strategy only runs once a minute by default, drive it faster
+        List<Long> queueWait = new ArrayList<Long>();
+        long deadline = submitted + TimeUnit.MINUTES.toMillis(30);
+        int done = 0;
+        while (done < builds.size()) {
+            assertTrue("Load test did not finish in time", System.currentTimeMillis() < deadline);
+            for (Computer computer : jenkins.getComputers()) {
+                if (computer instanceof VirtualMachineSlaveComputer) {
+                    VirtualMachineSlaveComputer vm = (VirtualMachineSlaveComputer) computer;
+                    ((RetentionStrategy<VirtualMachineSlaveComputer>) vm.getRetentionStrategy()).check(vm);
+                }
+            }
+            done = 0;
+            for (Future<FreeStyleBuild> build : builds) {
+                if (build.isDone()) {
+                    done++;
+                }
+            }
+            Thread.sleep(250);
+        }
+        long finished = System.currentTimeMillis();
+        for (Future<FreeStyleBuild> build : builds) {
+            queueWait.add(build.get().getTimeInMillis() - submitted);
+        }
+
+        report(name, queueWait, new ArrayList<Long>(BOOT_TO_ONLINE), finished - submitted);
+    }
+
+    private void report(String name, List<Long> queueWait, List<Long> bootToOnline, long wallMs) throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append("scenario ").append(name).append(": ").append(SLAVES).append(" slaves, ").append(JOBS)
+                .append(" jobs, capacity ").append(CAPACITY).append(", boot ").append(BOOT_MS).append("ms, latency ")
+                .append(LATENCY_MICROS).append("us, boot limit ").append(MAX_BOOTS).append(" every ")
+                .append(BOOT_INTERVAL).append("s\n");
+        out.append(percentiles("queue wait (ms)", queueWait));
+        out.append(percentiles("boot to online (ms)", bootToOnline));
+        out.append(String.format("throughput: %.2f builds/min over %ds%n", JOBS * 60000.0 / wallMs, wallMs / 1000));
+        System.out.print(out);
+
+        File dir = new File("target/loadtest");
+        dir.mkdirs();
+        FileWriter writer = new FileWriter(new File(dir, name + ".txt"));
+        try {
+            writer.write(out.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String percentiles(String label, List<Long> values) {
+        if (values.isEmpty()) {
+            return label + ": no samples\n";
+        }
+        Collections.sort(values);
+        return String.format("%s: n=%d p50=%d p90=%d p99=%d max=%d%n", label, values.size(),
+                percentile(values, 0.5), percentile(values, 0.9), percentile(values, 0.99), values.get(values.size() - 1));
+    }
+
+    private static long percentile(List<Long> sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    @TestExtension
+    public static class SimReadyLauncherDescriptor extends Descriptor<ComputerLauncher> {
+        public SimReadyLauncherDescriptor() {
+            super(SimReadyLauncher.class);
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Launch once the simulated guest is up";
+        }
+    }
+
+    /**
+     * Measures the time from the start of a launch until the slave is online.
+     */
+    @TestExtension
+    public static class BootTimer extends ComputerListener {
+        @Override
+        public void preLaunch(Computer c, TaskListener taskListener) {
+            LAUNCH_STARTED.put(c.getName(), System.currentTimeMillis());
+        }
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            Long started = LAUNCH_STARTED.remove(c.getName());
+            if (started != null) {
+                BOOT_TO_ONLINE.add(System.currentTimeMillis() - started);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package hudson.plugins.libvirt;
+
+import junit.framework.TestCase;
+
+public class RetryPolicyTest extends TestCase {
+
+    public void testFixedWaitsTheSameBeforeEveryAttempt() {
+        RetryPolicy policy = RetryPolicy.fixed(5000);
+        for (int attempt = 0; attempt < 5; attempt++) {
+            assertEquals(5000, policy.getDelayMs(attempt));
+        }
+        assertTrue(policy.isWithinDeadline(0, Long.MAX_VALUE / 2));
+    }
+
+    public void testDelayGrowsByTheMultiplierUpToTheCap() {
+        RetryPolicy policy = new RetryPolicy(1000, 2, 5000, 0, 0);
+        assertEquals(1000, policy.getDelayMs(0));
+        assertEquals(2000, policy.getDelayMs(1));
+        assertEquals(4000, policy.getDelayMs(2));
+        assertEquals(5000, policy.getDelayMs(3));
+        assertEquals(5000, policy.getDelayMs(30));
+    }
+
+    public void testJitterStaysWithinItsFraction() {
+        RetryPolicy policy = new RetryPolicy(1000, 1, 0, 0.25, 0);
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.getDelayMs(0);
+            assertTrue(String.valueOf(delay), delay >= 750 && delay <= 1250);
+        }
+    }
+
+    public void testJitterAppliesAfterTheCap() {
+        RetryPolicy policy = new RetryPolicy(1000, 10, 2000, 0.5, 0);
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.getDelayMs(5);
+            assertTrue(String.valueOf(delay), delay >= 1000 && delay <= 3000);
+        }
+    }
+
+    public void testOutOfRangeArgumentsAreClamped() {
+        RetryPolicy policy = new RetryPolicy(-1, 0.5, 0, 3, 0);
+        assertEquals(0, policy.getInitialDelayMs());
+        assertEquals(1.0, policy.getMultiplier());
+        assertEquals(1.0, policy.getJitter());
+    }
+
+    public void testDeadline() {
+        RetryPolicy policy = new RetryPolicy(1000, 1, 0, 0, 10000);
+        long now = System.currentTimeMillis();
+        assertTrue(policy.isWithinDeadline(now, 1000));
+        assertTrue(policy.isWithinDeadline(now - 5000, 1000));
+        assertFalse(policy.isWithinDeadline(now - 9500, 1000));
+        assertFalse(policy.isWithinDeadline(now - 20000, 0));
+    }
+}
@@ -0,0 +1,52 @@
+package hudson.plugins.libvirt;
+
+import hudson.model.TaskListener;
+import hudson.plugins.libvirt.lib.sim.SimHypervisor;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.SlaveComputer;
+
+import java.io.IOException;
+
+/**
+ * Launches the slave agent of a simulated domain once its guest has finished booting,
+ * like an SSH launcher that can only connect to a guest that is up. Its descriptor is registered by the
+ * test that uses it, see {@link RetentionLoadTest.SimReadyLauncherDescriptor}.
+ */
+public class SimReadyLauncher extends ComputerLauncher {
+
+    private final ComputerLauncher delegate;
+    private final String simUri;
+    private final String vmName;
+    private final long timeoutMs;
+
+    public SimReadyLauncher(ComputerLauncher delegate, String simUri, String vmName, long timeoutMs) {
+        this.delegate = delegate;
+        this.simUri = simUri;
+        this.vmName = vmName;
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public void launch(SlaveComputer computer, TaskListener listener) throws IOException, InterruptedException {
+        SimHypervisor hypervisor = SimHypervisor.forUri(simUri);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!hypervisor.isReady(vmName)) {
+            if (System.currentTimeMillis() > deadline) {
+                listener.getLogger().println("Simulated guest " + vmName + " is not up, giving up.");
+                return;
+            }
+            Thread.sleep(100);
+        }
+        delegate.launch(computer, listener);
+    }
+
+    @Override
+    public void afterDisconnect(SlaveComputer computer, TaskListener listener) {
+        delegate.afterDisconnect(computer, listener);
+    }
+
+    @Override
+    public void beforeDisconnect(SlaveComputer computer, TaskListener listener) {
+        delegate.beforeDisconnect(computer, listener);
+    }
+}
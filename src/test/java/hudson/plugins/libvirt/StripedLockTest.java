@@ -0,0 +1,73 @@
+package hudson.plugins.libvirt;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+public class StripedLockTest extends TestCase {
+
+    public void testSizeIsRoundedUpToAPowerOfTwo() {
+        assertEquals(1, new StripedLock(0).size());
+        assertEquals(1, new StripedLock(1).size());
+        assertEquals(16, new StripedLock(9).size());
+        assertEquals(64, new StripedLock(64).size());
+    }
+
+    public void testSameKeySameLock() {
+        StripedLock locks = new StripedLock(64);
+        assertSame(locks.get("vm-1"), locks.get(new String("vm-1")));
+        assertSame(locks.get(null), locks.get(null));
+    }
+
+    public void testNumberedNamesSpreadOverTheStripes() {
+        StripedLock locks = new StripedLock(16);
+        Set<Lock> used = new HashSet<Lock>();
+        for (int i = 0; i < 64; i++) {
+            used.add(locks.get("jenkins-slave-" + i));
+        }
+        assertTrue("Only " + used.size() + " stripes used", used.size() >= 12);
+    }
+
+    public void testOrdersOperationsOnTheSameKey() throws Exception {
+        StripedLock locks = new StripedLock(64);
+        final Lock lock = locks.get("vm");
+        final CountDownLatch tried = new CountDownLatch(1);
+        final AtomicBoolean acquired = new AtomicBoolean();
+        lock.lock();
+        try {
+            Thread other = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        acquired.set(lock.tryLock(100, TimeUnit.MILLISECONDS));
+                    } catch (InterruptedException e) {
+                        // left unacquired
+                    } finally {
+                        tried.countDown();
+                    }
+                }
+            };
+            other.start();
+            assertTrue(tried.await(10, TimeUnit.SECONDS));
+            assertFalse(acquired.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void testLocksAreReentrant() {
+        Lock lock = new StripedLock(4).get("vm");
+        lock.lock();
+        try {
+            assertTrue(lock.tryLock());
+            lock.unlock();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package hudson.plugins.libvirt.lib.instrumented;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class CallTimeoutsTest extends TestCase {
+
+    public void testParseOverrides() {
+        Map<String, Integer> overrides = CallTimeouts.parseOverrides("connect=20, revertToSnapshot=900\ncreate=0");
+        assertEquals(3, overrides.size());
+        assertEquals(Integer.valueOf(20), overrides.get("connect"));
+        assertEquals(Integer.valueOf(900), overrides.get("revertToSnapshot"));
+        assertEquals(Integer.valueOf(0), overrides.get("create"));
+    }
+
+    public void testParseEmptyOverrides() {
+        assertTrue(CallTimeouts.parseOverrides(null).isEmpty());
+        assertTrue(CallTimeouts.parseOverrides("").isEmpty());
+        assertTrue(CallTimeouts.parseOverrides(" ,\n ").isEmpty());
+    }
+
+    public void testParseMalformedOverrides() {
+        for (String malformed : new String[]{"connect", "=20", "connect=", "connect=soon", "connect=20=30", "connect==20"}) {
+            try {
+                CallTimeouts.parseOverrides(malformed);
+                fail("Accepted \"" + malformed + "\"");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testTimeouts() {
+        CallTimeouts timeouts = new CallTimeouts(30, CallTimeouts.parseOverrides("connect=5, managedSave=0"));
+        assertEquals(30000, timeouts.getTimeoutMs("listDomains"));
+        assertEquals(5000, timeouts.getTimeoutMs(CallTimeouts.CONNECT));
+        assertEquals(CallTimeouts.LONG_OPERATION_SECONDS * 1000L, timeouts.getTimeoutMs("create"));
+        assertEquals(0, timeouts.getTimeoutMs("managedSave"));
+    }
+
+    public void testNoDefaultWaitsForever() {
+        CallTimeouts timeouts = new CallTimeouts(0, Collections.<String, Integer>emptyMap());
+        assertEquals(0, timeouts.getTimeoutMs("listDomains"));
+        assertEquals(0, timeouts.getTimeoutMs("create"));
+    }
+}
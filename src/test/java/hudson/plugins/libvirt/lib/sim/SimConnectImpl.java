@@ -0,0 +1,77 @@
+package hudson.plugins.libvirt.lib.sim;
+
+import hudson.plugins.libvirt.lib.HostStats;
+import hudson.plugins.libvirt.lib.IConnect;
+import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.VirtException;
+
+/**
+ * Connection to a {@link SimHypervisor}, an in-memory hypervisor for load tests that needs no libvirt daemon.
+ */
+public class SimConnectImpl implements IConnect {
+
+    private final SimHypervisor hypervisor;
+    private volatile boolean connected = true;
+
+    public SimConnectImpl(String uri) throws VirtException {
+        if (uri == null || !uri.startsWith("sim://")) {
+            throw new VirtException("Not a simulator URI: " + uri);
+        }
+        this.hypervisor = SimHypervisor.forUri(uri);
+        hypervisor.rpc("connect");
+    }
+
+    public SimHypervisor getHypervisor() {
+        return hypervisor;
+    }
+
+    public long getVersion() throws VirtException {
+        checkConnected();
+        hypervisor.rpc("getVersion");
+        return 1002000;
+    }
+
+    public int[] listDomains() throws VirtException {
+        checkConnected();
+        hypervisor.rpc("listDomains");
+        return hypervisor.listActive();
+    }
+
+    public String[] listDefinedDomains() throws VirtException {
+        checkConnected();
+        hypervisor.rpc("listDefinedDomains");
+        return hypervisor.listInactive();
+    }
+
+    public IDomain domainLookupByName(String c) throws VirtException {
+        checkConnected();
+        hypervisor.rpc("domainLookupByName");
+        return new SimDomainImpl(hypervisor, hypervisor.lookup(c));
+    }
+
+    public IDomain domainLookupByID(int c) throws VirtException {
+        checkConnected();
+        hypervisor.rpc("domainLookupByID");
+        return new SimDomainImpl(hypervisor, hypervisor.lookup(c));
+    }
+
+    public void close() throws VirtException {
+        connected = false;
+    }
+
+    public boolean isConnected() throws VirtException {
+        return connected;
+    }
+
+    public HostStats getHostStats() throws VirtException {
+        checkConnected();
+        hypervisor.rpc("nodeInfo");
+        return hypervisor.hostStats();
+    }
+
+    private void checkConnected() throws VirtException {
+        if (!connected) {
+            throw new VirtException("Connection to " + hypervisor.getHost() + " is closed");
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package hudson.plugins.libvirt.lib.sim;
+
+import hudson.plugins.libvirt.lib.DomainStats;
+import hudson.plugins.libvirt.lib.IDomain;
+import hudson.plugins.libvirt.lib.IDomainSnapshot;
+import hudson.plugins.libvirt.lib.VirtException;
+
+/**
+ * Domain of a {@link SimHypervisor}.
+ */
+public class SimDomainImpl implements IDomain {
+
+    private final SimHypervisor hypervisor;
+    private final SimHypervisor.Domain domain;
+
+    SimDomainImpl(SimHypervisor hypervisor, SimHypervisor.Domain domain) {
+        this.hypervisor = hypervisor;
+        this.domain = domain;
+    }
+
+    public String getName() throws VirtException {
+        return domain.name;
+    }
+
+    public String[] snapshotListNames() throws VirtException {
+        hypervisor.rpc("snapshotListNames");
+        synchronized (hypervisor) {
+            return domain.snapshots.toArray(new String[domain.snapshots.size()]);
+        }
+    }
+
+    public int snapshotNum() throws VirtException {
+        hypervisor.rpc("snapshotNum");
+        synchronized (hypervisor) {
+            return domain.snapshots.size();
+        }
+    }
+
+    public IDomainSnapshot snapshotLookupByName(String snapshotName) throws VirtException {
+        hypervisor.rpc("snapshotLookupByName");
+        synchronized (hypervisor) {
+            if (!domain.snapshots.contains(snapshotName)) {
+                throw new VirtException("Domain snapshot not found: no snapshot with matching name '" + snapshotName + "'");
+            }
+        }
+        return new SimDomainSnapshotImpl(snapshotName);
+    }
+
+    public void revertToSnapshot(IDomainSnapshot snapshot) throws VirtException {
+        hypervisor.rpc("revertToSnapshot");
+        hypervisor.revert(domain, ((SimDomainSnapshotImpl) snapshot).getName());
+    }
+
+    public void shutdown() throws VirtException {
+        hypervisor.rpc("shutdown");
+        hypervisor.shutdown(domain);
+    }
+
+    public boolean isRunningOrBlocked() throws VirtException {
+        hypervisor.rpc("getInfo");
+        SimHypervisor.State state = hypervisor.state(domain);
+        return state == SimHypervisor.State.RUNNING || state == SimHypervisor.State.SHUTDOWN;
+    }
+
+    public boolean isNotBlockedAndNotRunning() throws VirtException {
+        return !isRunningOrBlocked();
+    }
+
+    public boolean isShutOff() throws VirtException {
+        hypervisor.rpc("getInfo");
+        return hypervisor.state(domain) == SimHypervisor.State.SHUTOFF;
+    }
+
+    public void create() throws VirtException {
+        hypervisor.rpc("create");
+        hypervisor.create(domain);
+    }
+
+    public void destroy() throws VirtException {
+        hypervisor.rpc("destroy");
+        hypervisor.destroy(domain);
+    }
+
+    public void suspend() throws VirtException {
+        hypervisor.rpc("suspend");
+        hypervisor.suspend(domain);
+    }
+
+    public void managedSave() throws VirtException {
+        hypervisor.rpc("managedSave");
+        hypervisor.managedSave(domain);
+    }
+
+    public boolean hasManagedSaveImage() throws VirtException {
+        hypervisor.rpc("hasManagedSaveImage");
+        synchronized (hypervisor) {
+            return domain.managedSaveImage;
+        }
+    }
+
+    public DomainStats getStats() throws VirtException {
+        hypervisor.rpc("getInfo");
+        return hypervisor.stats(domain);
+    }
+}
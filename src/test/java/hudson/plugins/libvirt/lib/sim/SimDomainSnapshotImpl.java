@@ -0,0 +1,19 @@
+package hudson.plugins.libvirt.lib.sim;
+
+import hudson.plugins.libvirt.lib.IDomainSnapshot;
+
+/**
+ * Snapshot of a simulated domain.
+ */
+public class SimDomainSnapshotImpl implements IDomainSnapshot {
+
+    private final String name;
+
+    public SimDomainSnapshotImpl(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,339 @@
+package hudson.plugins.libvirt.lib.sim;
+
+import hudson.plugins.libvirt.lib.DomainStats;
+import hudson.plugins.libvirt.lib.HostStats;
+import hudson.plugins.libvirt.lib.VirtException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The state of a simulated hypervisor host, shared by all connections to the same <code>sim://</code> host.
+ * <p>
+ * The behaviour is configured through the query parameters of the URI of the first connection:
+ * <ul>
+ *     <li><code>domains</code>: number of domains, named <code>prefix-0</code> and up (default 10)</li>
+ *     <li><code>prefix</code>: prefix of the domain names (default <code>vm</code>)</li>
+ *     <li><code>bootMs</code>: time from start until the guest is ready (default 0)</li>
+ *     <li><code>restoreMs</code>: the same when restoring a managed save image (default bootMs / 5)</li>
+ *     <li><code>shutdownMs</code>: time a guest takes to power off after a shutdown request (default 0)</li>
+ *     <li><code>latencyMicros</code>: time every call takes (default 0)</li>
+ *     <li><code>failureRate</code>: probability that a call fails (default 0)</li>
+ *     <li><code>hungShutdownRate</code>: probability that a guest ignores a shutdown request (default 0)</li>
+ *     <li><code>maxRunning</code>: number of domains that may run at the same time, 0 for no limit (default 0)</li>
+ *     <li><code>snapshots</code>: comma separated snapshot names every domain has (default none)</li>
+ *     <li><code>hostCpus</code>, <code>hostMemoryMb</code>: size of the host (default 32 and 131072)</li>
+ *     <li><code>domainMemoryMb</code>: memory of every domain (default 2048)</li>
+ * </ul>
+ * Example: <code>sim://farm1/system?domains=2000&amp;bootMs=30000&amp;latencyMicros=2000&amp;maxRunning=40</code>
+ */
+public final class SimHypervisor {
+
+    private static final ConcurrentMap<String, SimHypervisor> HOSTS = new ConcurrentHashMap<String, SimHypervisor>();
+
+    enum State { SHUTOFF, RUNNING, PAUSED, SHUTDOWN }
+
+    private final String host;
+    private final long bootMs;
+    private final long restoreMs;
+    private final long shutdownMs;
+    private final long latencyNanos;
+    private final double failureRate;
+    private final double hungShutdownRate;
+    private final int maxRunning;
+    private final int hostCpus;
+    private final long hostMemoryMb;
+    private final long domainMemoryMb;
+    private final Random random = new Random();
+    private final Map<String, Domain> domains = new LinkedHashMap<String, Domain>();
+    private int nextId = 1;
+
+    private SimHypervisor(String host, Map<String, String> params) {
+        this.host = host;
+        this.bootMs = getLong(params, "bootMs", 0);
+        this.restoreMs = getLong(params, "restoreMs", bootMs / 5);
+        this.shutdownMs = getLong(params, "shutdownMs", 0);
+        this.latencyNanos = getLong(params, "latencyMicros", 0) * 1000;
+        this.failureRate = getDouble(params, "failureRate", 0);
+        this.hungShutdownRate = getDouble(params, "hungShutdownRate", 0);
+        this.maxRunning = (int) getLong(params, "maxRunning", 0);
+        this.hostCpus = (int) getLong(params, "hostCpus", 32);
+        this.hostMemoryMb = getLong(params, "hostMemoryMb", 131072);
+        this.domainMemoryMb = getLong(params, "domainMemoryMb", 2048);
+
+        String prefix = params.containsKey("prefix") ? params.get("prefix") : "vm";
+        List<String> snapshots = params.containsKey("snapshots")
+                ? Arrays.asList(params.get("snapshots").split(",")) : new ArrayList<String>();
+        int count = (int) getLong(params, "domains", 10);
+        for (int i = 0; i < count; i++) {
+            String name = prefix + "-" + i;
+            domains.put(name, new Domain(name, snapshots));
+        }
+    }
+
+    /**
+     * Returns the simulated host named in the URI, creating it on first use.
+     *
+     * @param uri a <code>sim://host/...?params</code> URI
+     * @return the simulated host
+     */
+    public static SimHypervisor forUri(String uri) {
+        String rest = uri.substring("sim://".length());
+        int end = rest.length();
+        for (char c : new char[]{'/', '?'}) {
+            int i = rest.indexOf(c);
+            if (i >= 0 && i < end) {
+                end = i;
+            }
+        }
+        String host = rest.substring(0, end);
+        SimHypervisor hypervisor = HOSTS.get(host);
+        if (hypervisor == null) {
+            SimHypervisor created = new SimHypervisor(host, parseQuery(uri));
+            hypervisor = HOSTS.putIfAbsent(host, created);
+            if (hypervisor == null) {
+                hypervisor = created;
+            }
+        }
+        return hypervisor;
+    }
+
+    /**
+     * Forgets all simulated hosts, for tests.
+     */
+    public static void reset() {
+        HOSTS.clear();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @param name the domain name
+     * @return whether the domain is running and its guest has finished booting
+     */
+    public synchronized boolean isReady(String name) {
+        Domain domain = domains.get(name);
+        return domain != null && domain.state() == State.RUNNING && System.currentTimeMillis() >= domain.readyAt;
+    }
+
+    public synchronized int getRunningCount() {
+        int running = 0;
+        for (Domain domain : domains.values()) {
+            if (domain.state() != State.SHUTOFF) {
+                running++;
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Simulates the round trip of one call: waits for the configured latency and fails at the configured rate.
+     */
+    void rpc(String method) throws VirtException {
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            throw new VirtException("Simulated failure of " + method + " on " + host);
+        }
+    }
+
+    synchronized Domain lookup(String name) throws VirtException {
+        Domain domain = domains.get(name);
+        if (domain == null) {
+            throw new VirtException("Domain not found: no domain with matching name '" + name + "'");
+        }
+        return domain;
+    }
+
+    synchronized Domain lookup(int id) throws VirtException {
+        for (Domain domain : domains.values()) {
+            if (domain.id == id && domain.state() != State.SHUTOFF) {
+                return domain;
+            }
+        }
+        throw new VirtException("Domain not found: no domain with matching id " + id);
+    }
+
+    synchronized int[] listActive() {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Domain domain : domains.values()) {
+            if (domain.state() != State.SHUTOFF) {
+                ids.add(domain.id);
+            }
+        }
+        int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    synchronized String[] listInactive() {
+        List<String> names = new ArrayList<String>();
+        for (Domain domain : domains.values()) {
+            if (domain.state() == State.SHUTOFF) {
+                names.add(domain.name);
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    synchronized void create(Domain domain) throws VirtException {
+        State state = domain.state();
+        if (state == State.PAUSED) {
+            domain.state = State.RUNNING;
+            return;
+        }
+        if (state != State.SHUTOFF) {
+            throw new VirtException("Requested operation is not valid: domain '" + domain.name + "' is already running");
+        }
+        if (maxRunning > 0 && getRunningCount() >= maxRunning) {
+            throw new VirtException("Simulated host " + host + " has no capacity left for '" + domain.name + "'");
+        }
+        domain.id = nextId++;
+        domain.state = State.RUNNING;
+        domain.startedAt = System.currentTimeMillis();
+        domain.cpuTimeNanos = 0;
+        domain.diskReadBytes = 0;
+        domain.diskWriteBytes = 0;
+        domain.netRxBytes = 0;
+        domain.netTxBytes = 0;
+        domain.readyAt = System.currentTimeMillis() + (domain.managedSaveImage ? restoreMs : bootMs);
+        domain.managedSaveImage = false;
+    }
+
+    synchronized void shutdown(Domain domain) throws VirtException {
+        requireActive(domain);
+        if (domain.state() == State.RUNNING && random.nextDouble() >= hungShutdownRate) {
+            domain.state = State.SHUTDOWN;
+            domain.offAt = System.currentTimeMillis() + shutdownMs;
+        }
+    }
+
+    synchronized void destroy(Domain domain) throws VirtException {
+        requireActive(domain);
+        domain.state = State.SHUTOFF;
+    }
+
+    synchronized void suspend(Domain domain) throws VirtException {
+        if (domain.state() != State.RUNNING) {
+            throw new VirtException("Requested operation is not valid: domain '" + domain.name + "' is not running");
+        }
+        domain.state = State.PAUSED;
+    }
+
+    synchronized void managedSave(Domain domain) throws VirtException {
+        requireActive(domain);
+        domain.state = State.SHUTOFF;
+        domain.managedSaveImage = true;
+    }
+
+    synchronized void revert(Domain domain, String snapshotName) throws VirtException {
+        if (!domain.snapshots.contains(snapshotName)) {
+            throw new VirtException("Domain snapshot not found: no snapshot with matching name '" + snapshotName + "'");
+        }
+        domain.state = State.SHUTOFF;
+        domain.managedSaveImage = false;
+    }
+
+    synchronized HostStats hostStats() {
+        return new HostStats(hostCpus, hostMemoryMb * 1024, (hostMemoryMb - getRunningCount() * domainMemoryMb) * 1024);
+    }
+
+    /**
+     * Made up but plausible counters: a guest keeps one CPU busy and reads from disk while it boots,
+     * and runs at a random load afterwards.
+     */
+    synchronized DomainStats stats(Domain domain) throws VirtException {
+        requireActive(domain);
+        long now = System.currentTimeMillis();
+        if (domain.sampledAt > 0 && domain.state() == State.RUNNING) {
+            long elapsed = now - Math.max(domain.sampledAt, domain.startedAt);
+            double load = now < domain.readyAt ? 1.0 : random.nextDouble() * 0.8;
+            domain.cpuTimeNanos += (long) (elapsed * 1000000L * load);
+            domain.diskReadBytes += (long) (elapsed * (now < domain.readyAt ? 50000 : 2000) * load);
+            domain.diskWriteBytes += (long) (elapsed * 1000 * load);
+            domain.netRxBytes += (long) (elapsed * 500 * load);
+            domain.netTxBytes += (long) (elapsed * 200 * load);
+        }
+        domain.sampledAt = now;
+        return new DomainStats(domain.cpuTimeNanos, 1, domainMemoryMb * 1024, domainMemoryMb * 1024, domain.diskReadBytes,
+                domain.diskWriteBytes, domain.netRxBytes, domain.netTxBytes);
+    }
+
+    synchronized State state(Domain domain) {
+        return domain.state();
+    }
+
+    private void requireActive(Domain domain) throws VirtException {
+        if (domain.state() == State.SHUTOFF) {
+            throw new VirtException("Requested operation is not valid: domain '" + domain.name + "' is not running");
+        }
+    }
+
+    private static Map<String, String> parseQuery(String uri) {
+        Map<String, String> params = new HashMap<String, String>();
+        int q = uri.indexOf('?');
+        if (q < 0) {
+            return params;
+        }
+        for (String pair : uri.substring(q + 1).split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+        }
+        return params;
+    }
+
+    private static long getLong(Map<String, String> params, String key, long defaultValue) {
+        return params.containsKey(key) ? Long.parseLong(params.get(key)) : defaultValue;
+    }
+
+    private static double getDouble(Map<String, String> params, String key, double defaultValue) {
+        return params.containsKey(key) ? Double.parseDouble(params.get(key)) : defaultValue;
+    }
+
+    /**
+     * A simulated domain. Guarded by the lock of its {@link SimHypervisor}.
+     */
+    static final class Domain {
+        final String name;
+        final List<String> snapshots;
+        int id;
+        State state = State.SHUTOFF;
+        long readyAt;
+        long offAt;
+        boolean managedSaveImage;
+        long startedAt;
+        long sampledAt;
+        long cpuTimeNanos;
+        long diskReadBytes;
+        long diskWriteBytes;
+        long netRxBytes;
+        long netTxBytes;
+
+        Domain(String name, List<String> snapshots) {
+            this.name = name;
+            this.snapshots = new ArrayList<String>(snapshots);
+        }
+
+        State state() {
+            if (state == State.SHUTDOWN && System.currentTimeMillis() >= offAt) {
+                state = State.SHUTOFF;
+            }
+            return state;
+        }
+    }
+}
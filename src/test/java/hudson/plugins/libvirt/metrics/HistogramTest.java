@@ -0,0 +1,92 @@
+package hudson.plugins.libvirt.metrics;
+
+import junit.framework.TestCase;
+
+public class HistogramTest extends TestCase {
+
+    public void testEmpty() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.9));
+    }
+
+    public void testBucketBoundsAreInclusive() {
+        Histogram histogram = new Histogram();
+        histogram.record(5);
+        histogram.record(6);
+        histogram.record(10);
+        long[] counts = histogram.getBucketCounts();
+        assertEquals(Histogram.getBounds().length + 1, counts.length);
+        assertEquals(1, counts[0]);
+        assertEquals(2, counts[1]);
+    }
+
+    public void testOverflowBucket() {
+        Histogram histogram = new Histogram();
+        long[] bounds = Histogram.getBounds();
+        histogram.record(bounds[bounds.length - 1] + 1);
+        long[] counts = histogram.getBucketCounts();
+        assertEquals(1, counts[counts.length - 1]);
+        assertEquals(bounds[bounds.length - 1] + 1, histogram.getPercentile(0.5));
+    }
+
+    public void testStatistics() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(50, histogram.getMean());
+        assertEquals(100, histogram.getMax());
+    }
+
+    public void testPercentilesAreTheUpperBoundOfTheirBucket() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(20);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(400);
+        }
+        assertEquals(25, histogram.getPercentile(0.5));
+        assertEquals(25, histogram.getPercentile(0.9));
+        assertEquals(400, histogram.getPercentile(0.95));
+        assertEquals(400, histogram.getPercentile(1));
+    }
+
+    public void testPercentileNeverExceedsTheMax() {
+        Histogram histogram = new Histogram();
+        histogram.record(120);
+        assertEquals(120, histogram.getPercentile(0.99));
+    }
+
+    public void testConcurrentRecording() throws Exception {
+        final Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(offset + i % 100);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, histogram.getCount());
+        assertEquals(106, histogram.getMax());
+        long total = 0;
+        for (long count : histogram.getBucketCounts()) {
+            total += count;
+        }
+        assertEquals(80000, total);
+    }
+}
@@ -0,0 +1,55 @@
+package hudson.plugins.libvirt.metrics;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class RingBufferTest extends TestCase {
+
+    public void testEmpty() {
+        RingBuffer buffer = new RingBuffer(3);
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.getValues().length);
+        assertEquals(0.0, buffer.getLast(), 0);
+        assertEquals(0, buffer.getLastTime());
+        assertEquals(0.0, buffer.getMax(), 0);
+    }
+
+    public void testPartiallyFilled() {
+        RingBuffer buffer = new RingBuffer(3);
+        buffer.add(1000, 1);
+        buffer.add(2000, 5);
+        assertEquals(2, buffer.size());
+        assertTrue(Arrays.equals(new double[]{1, 5}, buffer.getValues()));
+        assertEquals(5.0, buffer.getLast(), 0);
+        assertEquals(2000, buffer.getLastTime());
+        assertEquals(5.0, buffer.getMax(), 0);
+    }
+
+    public void testOverwritesTheOldestOnceFull() {
+        RingBuffer buffer = new RingBuffer(3);
+        for (int i = 1; i <= 5; i++) {
+            buffer.add(i * 1000, i);
+        }
+        assertEquals(3, buffer.size());
+        assertTrue(Arrays.equals(new double[]{3, 4, 5}, buffer.getValues()));
+        assertEquals(5.0, buffer.getLast(), 0);
+        assertEquals(5000, buffer.getLastTime());
+    }
+
+    public void testMaxOnlyCoversTheKeptSamples() {
+        RingBuffer buffer = new RingBuffer(2);
+        buffer.add(1000, 9);
+        buffer.add(2000, 2);
+        buffer.add(3000, 3);
+        assertEquals(3.0, buffer.getMax(), 0);
+    }
+
+    public void testWrapsAroundRepeatedly() {
+        RingBuffer buffer = new RingBuffer(4);
+        for (int i = 0; i < 1001; i++) {
+            buffer.add(i, i);
+        }
+        assertTrue(Arrays.equals(new double[]{997, 998, 999, 1000}, buffer.getValues()));
+    }
+}
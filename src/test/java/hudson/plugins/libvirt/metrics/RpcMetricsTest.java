@@ -0,0 +1,34 @@
+package hudson.plugins.libvirt.metrics;
+
+import junit.framework.TestCase;
+
+public class RpcMetricsTest extends TestCase {
+
+    public void testOperationsAreKeptPerHypervisorAndMethod() {
+        RpcMetrics.Operation operation = RpcMetrics.get("RpcMetricsTest", "listDomains");
+        assertSame(operation, RpcMetrics.get("RpcMetricsTest", "listDomains"));
+        assertNotSame(operation, RpcMetrics.get("RpcMetricsTest", "getVersion"));
+        assertNotSame(operation, RpcMetrics.get("RpcMetricsTest-2", "listDomains"));
+        assertTrue(RpcMetrics.getOperations().contains(operation));
+        assertEquals("RpcMetricsTest", operation.getHypervisor());
+        assertEquals("listDomains", operation.getMethod());
+    }
+
+    public void testCallsErrorsAndInFlight() {
+        RpcMetrics.Operation operation = RpcMetrics.get("RpcMetricsTest", "create");
+        long first = operation.begin();
+        long second = operation.begin();
+        assertEquals(2, operation.getInFlight());
+        operation.end(first, false);
+        operation.end(second, true);
+        assertEquals(0, operation.getInFlight());
+        assertEquals(2, operation.getCalls());
+        assertEquals(1, operation.getErrors());
+        assertEquals(0.5, operation.getErrorRate(), 1e-9);
+        assertEquals(2, operation.getLatency().getCount());
+    }
+
+    public void testNoCallsNoErrorRate() {
+        assertEquals(0.0, RpcMetrics.get("RpcMetricsTest", "unused").getErrorRate(), 1e-9);
+    }
+}